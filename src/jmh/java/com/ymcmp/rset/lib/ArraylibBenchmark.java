@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.io.StringReader;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.ymcmp.rset.RsetLexer;
+import com.ymcmp.rset.RsetParser;
+import com.ymcmp.rset.ByteClassLoader;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArraylibBenchmark {
+
+    // Subscripting should take the same time for both
+    @Param({ "100", "10000" })
+    public int size;
+
+    private List<Object> tail;
+    private String text;
+    private int[] ints;
+
+    private Rule sumTail;
+    private Object[] input;
+
+    @Setup
+    public void setup() throws Exception {
+        tail = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) tail.add(i);
+
+        final char[] chars = new char[size];
+        Arrays.fill(chars, 'a');
+        text = new String(chars);
+
+        ints = new int[size];
+
+        // Like the calculator example, every element of the tail is subscripted
+        final RsetParser parser = new RsetParser(new RsetLexer(new StringReader(
+                "rule sum = t:((%a 0-9)*) { s = 0; ?t { s = ?s + ?_it:1 }; ?s }")));
+        final byte[] bytes = parser.parse().toBytecode("Tails", null, false);
+        final Rulesets rsets = (Rulesets) new ByteClassLoader().loadFromBytes("Tails", bytes).newInstance();
+        sumTail = rsets.getRule("sum");
+
+        input = new Object[size * 2];
+        for (int i = 0; i < input.length; i += 2) {
+            input[i] = 'a';
+            input[i + 1] = i % 10;
+        }
+    }
+
+    // What subscript used to do for collections
+    private static Object subscriptByCopy(Collection<?> col, int offset) {
+        return col.toArray()[offset];
+    }
+
+    @Benchmark
+    public Object subscriptListByCopy() {
+        return subscriptByCopy(tail, size / 2);
+    }
+
+    @Benchmark
+    public Object subscriptList() {
+        return Arraylib.subscript(tail, size / 2);
+    }
+
+    @Benchmark
+    public Object subscriptString() {
+        return Arraylib.subscript(text, size / 2);
+    }
+
+    @Benchmark
+    public Object subscriptIntArray() {
+        return Arraylib.subscript(ints, size / 2);
+    }
+
+    @Benchmark
+    public Object loopOverTail() {
+        // Should grow linearly with the size, not quadratically
+        return sumTail.apply(input);
+    }
+}
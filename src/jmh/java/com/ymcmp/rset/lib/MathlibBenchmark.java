@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.io.StringReader;
+
+import java.math.BigDecimal;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.ymcmp.rset.RsetLexer;
+import com.ymcmp.rset.RsetParser;
+import com.ymcmp.rset.ByteClassLoader;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathlibBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private final Comparable[] lhs = new Comparable[SIZE];
+    private final Comparable[] rhs = new Comparable[SIZE];
+
+    private Object[] readings;
+    private Rule inRange;
+
+    @Setup
+    public void setup() throws Exception {
+        final Random rnd = new Random(42);
+        for (int i = 0; i < SIZE; ++i) {
+            lhs[i] = rnd.nextBoolean() ? (Comparable) rnd.nextInt(100) : (Comparable) (rnd.nextDouble() * 100);
+            rhs[i] = rnd.nextBoolean() ? (Comparable) (long) rnd.nextInt(100) : (Comparable) (rnd.nextFloat() * 100);
+        }
+
+        // Sensor readings that should stay between 10 and 90
+        readings = new Object[SIZE];
+        for (int i = 0; i < SIZE; ++i) readings[i] = 10 + rnd.nextDouble() * 80;
+
+        final RsetParser parser = new RsetParser(new RsetLexer(new StringReader("rule ok = (10-90)+")));
+        final byte[] bytes = parser.parse().toBytecode("Readings", null, false);
+        final Rulesets rsets = (Rulesets) new ByteClassLoader().loadFromBytes("Readings", bytes).newInstance();
+        inRange = rsets.getRule("ok");
+    }
+
+    // What compare used to do for every pair of numbers
+    private static int compareByBigDecimal(Comparable a, Comparable b) {
+        return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+    }
+
+    @Benchmark
+    public void compareBigDecimal(Blackhole bh) {
+        for (int i = 0; i < SIZE; ++i) bh.consume(compareByBigDecimal(lhs[i], rhs[i]));
+    }
+
+    @Benchmark
+    public void compareKernel(Blackhole bh) {
+        for (int i = 0; i < SIZE; ++i) bh.consume(Mathlib.compare(lhs[i], rhs[i]));
+    }
+
+    @Benchmark
+    public Object matchReadings() {
+        return inRange.apply(readings);
+    }
+}
@@ -21,6 +21,14 @@ public interface ASMUtils {
 
     public MethodVisitor getMethodVisitor();
 
+    /**
+     * @return where boxed literals are hoisted to, null if they are created
+     *         every time instead
+     */
+    public default StaticConstants getStaticConstants() {
+        return null;
+    }
+
     public default void newObjectNoArgs(int slot, final String className) {
         final MethodVisitor mv = getMethodVisitor();
         mv.visitTypeInsn(NEW, className);
@@ -152,8 +160,29 @@ public interface ASMUtils {
     public default void pushAsObject(final ValueNode n) {
         final MethodVisitor mv = getMethodVisitor();
 
-        if (n.token.type == Type.L_NULL) {
-            mv.visitInsn(ACONST_NULL);
+        switch (n.token.type) {
+            case L_NULL:
+                mv.visitInsn(ACONST_NULL);
+                return;
+            case L_IDENT:
+                mv.visitLdcInsn(n.toObject());
+                return;
+            default:
+                break;
+        }
+
+        final StaticConstants consts = getStaticConstants();
+        if (consts != null) {
+            final Object value = n.toObject();
+            if (n.token.type != Type.L_CHARS) {
+                consts.loadValue(mv, value);
+                return;
+            }
+
+            // The array is handed out, so every evaluation gets its own copy
+            consts.loadValue(mv, value.toString().toCharArray());
+            mv.visitMethodInsn(INVOKEVIRTUAL, "[C", "clone", "()Ljava/lang/Object;", false);
+            mv.visitTypeInsn(CHECKCAST, "[C");
             return;
         }
 
@@ -22,6 +22,7 @@ public class Main {
         public String outputName;
         public String inputName;
         public boolean withLogger;
+        public boolean memoize;
     }
 
     private static final String DEFAULT_CLASS_NAME = "CompiledRulesets";
@@ -31,6 +32,7 @@ public class Main {
         String generatedPathName  = ".";
         String inputFile = null;
         boolean genWithLogger = false;
+        boolean memoize = false;
         for (int i = 0; i < args.length; ++i) {
             final String arg = args[i];
             switch (arg) {
@@ -47,6 +49,8 @@ public class Main {
                             "                           default: current directory\n" +
                             "  -l | --with-logger       Generated class has logging built-in\n" +
                             "                           default: without logger\n" +
+                            "  -m | --memoize           Memoizes every rule and subrule\n" +
+                            "                           default: only those marked memo\n" +
                             "If no ruleset file is specified, the compiler will read from stdin:\n" +
                             "  cat foo.rset bar.rset | compiler -n demo/JointRules -d demo\n" +
                             "\n" +
@@ -70,6 +74,10 @@ public class Main {
                 case "--with-logger":
                     genWithLogger = true;
                     break;
+                case "-m":
+                case "--memoize":
+                    memoize = true;
+                    break;
                 default:
                     inputFile = arg;
                     break;
@@ -97,6 +105,7 @@ public class Main {
         opt.outputName = fileName + ".class";
         opt.inputName = inputFile;
         opt.withLogger = genWithLogger;
+        opt.memoize = memoize;
         compile(reader, opt);
     }
 
@@ -106,6 +115,7 @@ public class Main {
             final RulesetGroup tree = parser.parse();
 
             if (tree == null) return;
+            if (opt.memoize) tree.enableMemoization();
 
             final byte[] bytes = tree.toBytecode(opt.className, opt.inputName, opt.withLogger);
 
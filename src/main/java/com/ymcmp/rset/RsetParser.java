@@ -70,8 +70,24 @@ public class RsetParser extends BaseParser<RulesetGroup> {
         return Optional.empty();
     }
 
+    private boolean parseMemoModifier() {
+        // memo rule / memo subrule: caches matches by input position
+        final Token<Type> t = getToken();
+        if (t != null && t.type == Type.L_IDENT && "memo".equals(t.text)) {
+            return true;
+        }
+        ungetToken(t);
+        return false;
+    }
+
     public RulesetNode parseRuleset() {
-        return determineRuleType().map(rulesetType -> {
+        final boolean memoize = parseMemoModifier();
+        final Optional<RulesetNode.Type> ruleType = determineRuleType();
+        if (memoize && !ruleType.isPresent()) {
+            throw new IllegalParseException("Expected rule or subrule after memo");
+        }
+
+        return ruleType.map(rulesetType -> {
             final ValueNode name = consumeRule(this::parseValue, "Missing name for ruleset");
 
             consumeToken(Type.S_EQ, "Expected '=' in ruleset '" + name.getText() + "' before rule");
@@ -80,6 +96,13 @@ public class RsetParser extends BaseParser<RulesetGroup> {
                     "Expected rule clause after new rule '" + name.getText() + "'");
 
             final RulesetNode rset = new RulesetNode(rulesetType, name, rule);
+            if (memoize) {
+                if (rulesetType == RulesetNode.Type.FRAGMENT) {
+                    // fragments are inlined, there is nothing to memoize
+                    throw new RuntimeException(name.getText() + " is fragment type and cannot be memoized");
+                }
+                rset.memoize = true;
+            }
 
             Optional.ofNullable(getToken()).ifPresent(b -> {
                 if (b.type == Type.S_LB) {
@@ -10,7 +10,7 @@ import java.util.Stack;
 public class Scope {
 
     public enum VarType {
-        HIDDEN, MAP, LIST, NUM, BOOL, EVAL_STATE;
+        HIDDEN, MAP, LIST, NUM, BOOL, EVAL_STATE, OBJECT, CAPTURES;
     }
 
     private final Stack<VarType> locals = new Stack<>();
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+import java.util.function.Consumer;
+
+import org.objectweb.asm.MethodVisitor;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Constants of a generated class that are created once by its static
+ * initializer instead of every time they are used, like boxed numbers,
+ * char arrays of %abc and the sets of merged alternatives. Char arrays are
+ * mutable, code that hands one out has to clone it.
+ */
+public final class StaticConstants {
+
+    private static final class Constant {
+
+        public final String name;
+        public final String type;
+        public final Consumer<? super MethodVisitor> init;
+
+        public Constant(String name, String type, Consumer<? super MethodVisitor> init) {
+            this.name = name;
+            this.type = type;
+            this.init = init;
+        }
+    }
+
+    private final String className;
+
+    // Keyed by type and the text of the value
+    private final Map<String, Constant> constants = new LinkedHashMap<>();
+
+    public StaticConstants(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Loads the constant, the field is defined the first time it is used
+     *
+     * @param key identifies the value among the constants of the same type
+     * @param type the descriptor of the field
+     * @param init pushes the value, it is only ever called in the static initializer
+     */
+    public void load(final MethodVisitor mv, final String key, final String type, final Consumer<? super MethodVisitor> init) {
+        final Constant c = constants.computeIfAbsent(type + ' ' + key,
+                k -> new Constant("const$" + constants.size(), type, init));
+        mv.visitFieldInsn(GETSTATIC, className, c.name, c.type);
+    }
+
+    /**
+     * Loads a boxed Integer, Double or Character or a char array
+     */
+    public void loadValue(final MethodVisitor mv, final Object value) {
+        if (value instanceof Integer) {
+            load(mv, value.toString(), "Ljava/lang/Integer;", m -> {
+                m.visitLdcInsn(value);
+                m.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+            });
+        } else if (value instanceof Double) {
+            load(mv, value.toString(), "Ljava/lang/Double;", m -> {
+                m.visitLdcInsn(value);
+                m.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+            });
+        } else if (value instanceof Character) {
+            load(mv, value.toString(), "Ljava/lang/Character;", m -> {
+                m.visitLdcInsn((int) (Character) value);
+                m.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;", false);
+            });
+        } else if (value instanceof char[]) {
+            final String str = new String((char[]) value);
+            load(mv, str, "[C", m -> {
+                m.visitLdcInsn(str);
+                m.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false);
+            });
+        } else {
+            throw new IllegalArgumentException("Cannot hoist constant of type " + value.getClass().getSimpleName());
+        }
+    }
+
+    public boolean isEmpty() {
+        return constants.isEmpty();
+    }
+
+    public void defineFields(final ClassWriterUtils cwa) {
+        for (final Constant c : constants.values()) {
+            cwa.defineField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, c.name, c.type, null);
+        }
+    }
+
+    /**
+     * Has to be part of the static initializer
+     */
+    public void initializeFields(final MethodVisitor mv) {
+        for (final Constant c : constants.values()) {
+            c.init.accept(mv);
+            mv.visitFieldInsn(PUTSTATIC, className, c.name, c.type);
+        }
+    }
+}
@@ -8,13 +8,16 @@ package com.ymcmp.rset.lib;
 import java.util.Map;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.RandomAccess;
+import java.util.AbstractList;
+import java.util.NoSuchElementException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.stream.Stream;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 public final class Arraylib {
 
@@ -61,13 +64,165 @@ public final class Arraylib {
         throw new ClassCastException(k + " is not an array");
     }
 
+    /**
+     * Copies the elements of an array into a new list
+     *
+     * @return null if k is not an array
+     */
     public static List<Object> polyArrayToList(final Object k) {
-        final int upperBound = polyArraylength(k);
-        if (upperBound < 0) return null;
+        final List<Object> view = asList(k);
+        return view == null ? null : new ArrayList<>(view);
+    }
 
-        final List<Object> list = new ArrayList<>(upperBound);
-        for (int i = 0; i < upperBound; ++i) list.add(polyAaload(k, i));
-        return list;
+    /**
+     * Views an array as a list without copying it. Elements of primitive
+     * arrays are boxed as they are read, the view cannot be modified.
+     *
+     * @return null if k is not an array
+     */
+    public static List<Object> asList(final Object k) {
+        if (k instanceof Object[]) return Arrays.asList((Object[]) k);
+        if (k instanceof byte[]) return new ByteArrayView((byte[]) k);
+        if (k instanceof short[]) return new ShortArrayView((short[]) k);
+        if (k instanceof char[]) return new CharArrayView((char[]) k);
+        if (k instanceof int[]) return new IntArrayView((int[]) k);
+        if (k instanceof float[]) return new FloatArrayView((float[]) k);
+        if (k instanceof long[]) return new LongArrayView((long[]) k);
+        if (k instanceof double[]) return new DoubleArrayView((double[]) k);
+        return null;
+    }
+
+    private static final class ByteArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final byte[] arr;
+
+        ByteArrayView(byte[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
+    }
+
+    private static final class ShortArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final short[] arr;
+
+        ShortArrayView(short[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
+    }
+
+    private static final class CharArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final char[] arr;
+
+        CharArrayView(char[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
+    }
+
+    private static final class IntArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final int[] arr;
+
+        IntArrayView(int[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
+    }
+
+    private static final class FloatArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final float[] arr;
+
+        FloatArrayView(float[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
+    }
+
+    private static final class LongArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final long[] arr;
+
+        LongArrayView(long[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
+    }
+
+    private static final class DoubleArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final double[] arr;
+
+        DoubleArrayView(double[] arr) {
+            this.arr = arr;
+        }
+
+        @Override
+        public Object get(int index) {
+            return arr[index];
+        }
+
+        @Override
+        public int size() {
+            return arr.length;
+        }
     }
 
     @Export("_sort")
@@ -75,10 +230,9 @@ public final class Arraylib {
         if (k == null) return null;
 
         // Do not sort in place
-        final List mod = polyArrayToList(k);
-        if (mod != null) {
-            Collections.sort(mod);
-            return mod.toArray();
+        if (k.getClass().isArray()) {
+            final Object copy = sortedCopy(k);
+            if (copy != null) return asList(copy).toArray();
         }
 
         if (k instanceof Collection) {
@@ -99,15 +253,61 @@ public final class Arraylib {
         throw new RuntimeException("Type '" + k.getClass().getSimpleName() + "' cannot be sorted!");
     }
 
+    private static Object sortedCopy(final Object k) {
+        if (k instanceof byte[]) {
+            final byte[] copy = ((byte[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof short[]) {
+            final short[] copy = ((short[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof char[]) {
+            final char[] copy = ((char[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof int[]) {
+            final int[] copy = ((int[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof float[]) {
+            final float[] copy = ((float[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof long[]) {
+            final long[] copy = ((long[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof double[]) {
+            final double[] copy = ((double[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        if (k instanceof Object[]) {
+            final Object[] copy = ((Object[]) k).clone();
+            Arrays.sort(copy);
+            return copy;
+        }
+        return null;
+    }
+
     @Export("_rev")
     public static Object reverse(Object k) {
         if (k == null) return null;
 
         // Do not reverse in place
-        final List mod = polyArrayToList(k);
-        if (mod != null) {
-            Collections.reverse(mod);
-            return mod.toArray();
+        final List<Object> view = asList(k);
+        if (view != null) {
+            final int size = view.size();
+            final Object[] arr = new Object[size];
+            for (int i = 0; i < size; ++i) arr[i] = view.get(size - 1 - i);
+            return arr;
         }
 
         if (k instanceof Collection) {
@@ -140,7 +340,7 @@ public final class Arraylib {
         if (x == null) {
             col.add(null);
         } else if (x.getClass().isArray()) {
-            for (final Object el : polyArrayToList(x)) flattenHelper(col, el);
+            for (final Object el : asList(x)) flattenHelper(col, el);
         } else if (x instanceof Iterable) {
             ((Iterable<?>) x).forEach(el -> flattenHelper(col, el));
         } else if (x instanceof Stream) {
@@ -185,14 +385,18 @@ public final class Arraylib {
     public static Object subscript(final Object base, final Object offset) {
         if (base == null) return null;
         try {
+            if (base instanceof Object[]) {
+                return ((Object[]) base)[((Number) offset).intValue()];
+            }
             if (base.getClass().isArray()) {
                 return polyAaload(base, ((Number) offset).intValue());
             }
             if (base instanceof CharSequence) {
                 return ((CharSequence) base).charAt(((Number) offset).intValue());
             }
-            if (base instanceof Collection) {
-                return ((Collection<?>) base).toArray()[((Number) offset).intValue()];
+            if (base instanceof List) {
+                // Constant time for RandomAccess lists, no copy for the others
+                return ((List<?>) base).get(((Number) offset).intValue());
             }
             if (base instanceof Map) {
                 return ((Map<?, ?>) base).get(offset);
@@ -206,10 +410,8 @@ public final class Arraylib {
                 }
             }
             if (base instanceof Iterable) {
-                return StreamSupport.stream(((Iterable<?>) base).spliterator(), false)
-                        .skip(((Number) offset).longValue())
-                        .findFirst()
-                        .orElse(null);
+                // Includes the other collections
+                return nth(((Iterable<?>) base).iterator(), ((Number) offset).longValue());
             }
             if (base instanceof Stream) {
                 return ((Stream<?>) base)
@@ -224,10 +426,97 @@ public final class Arraylib {
         }
     }
 
+    private static Object nth(final Iterator<?> it, long n) {
+        if (n < 0) return null;
+        while (it.hasNext()) {
+            final Object el = it.next();
+            if (n-- == 0) return el;
+        }
+        return null;
+    }
+
+    private abstract static class IndexIterator implements Iterator<Object> {
+
+        private final int length;
+        private int index;
+
+        protected IndexIterator(int length) {
+            this.length = length;
+        }
+
+        protected abstract Object get(int index);
+
+        @Override
+        public boolean hasNext() {
+            return index < length;
+        }
+
+        @Override
+        public Object next() {
+            if (index >= length) throw new NoSuchElementException();
+            return get(index++);
+        }
+    }
+
+    /**
+     * Iterates over the same elements as toIterable without copying them
+     * first: arrays are indexed and strings use charAt.
+     *
+     * @return null if obj is null
+     */
+    public static Iterator<?> iterate(final Object obj) {
+        if (obj == null) return null;
+
+        if (obj instanceof Object[]) {
+            final Object[] arr = (Object[]) obj;
+            return new IndexIterator(arr.length) {
+                @Override
+                protected Object get(int i) {
+                    return arr[i];
+                }
+            };
+        }
+        if (obj instanceof int[]) {
+            final int[] arr = (int[]) obj;
+            return new IndexIterator(arr.length) {
+                @Override
+                protected Object get(int i) {
+                    return arr[i];
+                }
+            };
+        }
+        if (obj instanceof char[]) {
+            final char[] arr = (char[]) obj;
+            return new IndexIterator(arr.length) {
+                @Override
+                protected Object get(int i) {
+                    return arr[i];
+                }
+            };
+        }
+        if (obj.getClass().isArray()) {
+            // The other primitive arrays
+            return asList(obj).iterator();
+        }
+        if (obj instanceof Map<?, ?>) {
+            return ((Map<?, ?>) obj).entrySet().iterator();
+        }
+        if (obj instanceof CharSequence) {
+            final CharSequence seq = (CharSequence) obj;
+            return new IndexIterator(seq.length()) {
+                @Override
+                protected Object get(int i) {
+                    return seq.charAt(i);
+                }
+            };
+        }
+        return ((Iterable<?>) obj).iterator();
+    }
+
     public static Iterable<?> toIterable(final Object obj) {
         if (obj == null) return null;
 
-        final Iterable<?> it = polyArrayToList(obj);
+        final Iterable<?> it = asList(obj);
         if (it != null) return it;
 
         if (obj instanceof Map<?, ?>) {
@@ -243,12 +532,13 @@ public final class Arraylib {
     public static List<?> dropEveryXIndex(final Object obj, Number k, Number init) {
         final int offset = k.intValue();
         final int start = init.intValue();
-        final Iterable<?> it = toIterable(obj);
+        final Iterator<?> it = iterate(obj);
         final List<Object> list = new ArrayList<>();
         int i = start - 1;
 
         if (it != null) {
-            for (Object el : it) {
+            while (it.hasNext()) {
+                final Object el = it.next();
                 if (++i == offset) {
                     i = -1;
                 } else if (i >= 0) {
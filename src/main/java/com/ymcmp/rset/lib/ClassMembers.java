@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The public fields and methods of a class. Names are collected once per
+ * class and handles are resolved the first time they are asked for, misses
+ * included, so looking up the same member again does not go through
+ * reflection.
+ */
+public final class ClassMembers {
+
+    private static final ClassValue<ClassMembers> CACHE = new ClassValue<ClassMembers>() {
+        @Override
+        protected ClassMembers computeValue(Class<?> cl) {
+            return new ClassMembers(cl);
+        }
+    };
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    // Stored for members that do not exist or cannot be accessed
+    private static final MethodHandle MISSING = MethodHandles.constant(Object.class, null);
+
+    private final Class<?> cl;
+    private final Set<String> fieldNames;
+    private final Set<String> methodNames;
+
+    private final ConcurrentHashMap<String, MethodHandle> getters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<Object>, MethodHandle> invokers = new ConcurrentHashMap<>();
+
+    private ClassMembers(final Class<?> cl) {
+        this.cl = cl;
+
+        // Arrays have length as attribute but
+        // it is actually not a field to the class's concern
+        if (cl.isArray()) {
+            this.fieldNames = Collections.singleton("length");
+        } else {
+            final Set<String> names = new HashSet<>();
+            for (final Field f : cl.getFields()) names.add(f.getName());
+            this.fieldNames = names;
+        }
+
+        final Set<String> names = new HashSet<>();
+        for (final Method m : cl.getMethods()) names.add(m.getName());
+        this.methodNames = names;
+    }
+
+    public static ClassMembers of(final Class<?> cl) {
+        return CACHE.get(cl);
+    }
+
+    public boolean hasField(final String name) {
+        return fieldNames.contains(name);
+    }
+
+    public boolean hasMethod(final String name) {
+        return methodNames.contains(name);
+    }
+
+    /**
+     * @return a handle of type (Object)Object that reads the public field,
+     *         null if there is no such field
+     */
+    public MethodHandle getter(final String name) {
+        final MethodHandle handle = getters.computeIfAbsent(name, this::resolveGetter);
+        return handle == MISSING ? null : handle;
+    }
+
+    /**
+     * @param params The runtime classes of the arguments, the public method
+     *               must be declared with exactly these parameter types
+     *
+     * @return a handle of type (Object, Object[])Object that calls the public
+     *         method, null if there is no such method
+     */
+    public MethodHandle invoker(final String name, final Class<?>... params) {
+        final Object[] key = new Object[params.length + 1];
+        key[0] = name;
+        System.arraycopy(params, 0, key, 1, params.length);
+
+        final MethodHandle handle = invokers.computeIfAbsent(Arrays.asList(key), k -> resolveInvoker(name, params));
+        return handle == MISSING ? null : handle;
+    }
+
+    private MethodHandle resolveGetter(final String name) {
+        if (!fieldNames.contains(name) || cl.isArray()) return MISSING;
+        try {
+            final Field field = cl.getField(name);
+            MethodHandle handle = LOOKUP.unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                // Reading a static field ignores the object
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asType(GETTER_TYPE);
+        } catch (NoSuchFieldException | IllegalAccessException ex) {
+            return MISSING;
+        }
+    }
+
+    private MethodHandle resolveInvoker(final String name, final Class<?>[] params) {
+        if (!methodNames.contains(name)) return MISSING;
+        try {
+            final Method method = cl.getMethod(name, params);
+            MethodHandle handle = LOOKUP.unreflect(method).asFixedArity();
+            if (Modifier.isStatic(method.getModifiers())) {
+                // Calling a static method ignores the object
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asSpreader(Object[].class, params.length).asType(INVOKER_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return MISSING;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.AbstractMap;
+
+/**
+ * A mutable view over an immutable table of exports. Writes (captures and
+ * assignments) go to an overlay that is only allocated on the first write,
+ * so handing out a fresh environment per rule invocation costs one object.
+ */
+/* package */ final class Environment extends AbstractMap<String, Object> {
+
+    private final Map<String, Object> base;
+
+    // null until the first write
+    private Map<String, Object> overlay;
+
+    // set once overlay holds every entry (needed for removals and entrySet)
+    private boolean detached;
+
+    public Environment(Map<String, Object> base) {
+        this.base = base;
+    }
+
+    private void detach() {
+        if (detached) return;
+
+        final Map<String, Object> map = new HashMap<>(base);
+        if (overlay != null) map.putAll(overlay);
+        overlay = map;
+        detached = true;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (overlay != null) {
+            final Object v = overlay.get(key);
+            if (v != null || detached || overlay.containsKey(key)) return v;
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (overlay != null && (detached || overlay.containsKey(key))) {
+            return overlay.containsKey(key);
+        }
+        return base.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (overlay == null) overlay = new HashMap<>();
+        if (detached) return overlay.put(key, value);
+
+        final Object old = get(key);
+        overlay.put(key, value);
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        if (m.isEmpty()) return;
+        if (overlay == null) overlay = new HashMap<>();
+        overlay.putAll(m);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        detach();
+        return overlay.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        overlay = new HashMap<>();
+        detached = true;
+    }
+
+    @Override
+    public int size() {
+        if (overlay == null) return base.size();
+        if (detached) return overlay.size();
+
+        int k = base.size();
+        for (final String key : overlay.keySet()) {
+            if (!base.containsKey(key)) ++k;
+        }
+        return k;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        detach();
+        return overlay.entrySet();
+    }
+}
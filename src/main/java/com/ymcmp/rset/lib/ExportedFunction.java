@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MethodHandle;
+
+import java.util.Arrays;
+
+import java.util.function.Function;
+
+/**
+ * Adapts a method handle to the Object[] calling convention used by action
+ * blocks. How the arguments are spread (and whether a varargs tail needs to
+ * be collected) is decided when the export is bound, not on every call.
+ */
+/* package */ final class ExportedFunction implements Function<Object[], Object> {
+
+    private static final MethodType PASS_THROUGH = MethodType.methodType(Object.class, Object[].class);
+
+    private final String name;
+
+    // (Object[])Object, null if the arity is only known at the call site
+    private final MethodHandle invoker;
+
+    // Only used by varargs methods that also have fixed parameters
+    private final MethodHandle target;
+    private final int fixed;
+    private final Class<?> varargsType;
+    private volatile MethodHandle[] byArity = new MethodHandle[0];
+
+    private ExportedFunction(String name, MethodHandle invoker, MethodHandle target, int fixed, Class<?> varargsType) {
+        this.name = name;
+        this.invoker = invoker;
+        this.target = target;
+        this.fixed = fixed;
+        this.varargsType = varargsType;
+    }
+
+    /**
+     * @param name    Name used when reporting errors
+     * @param handle  Handle to bind, receivers (if any) are the first parameter
+     * @param varargs Is the last parameter collected from the remaining arguments
+     */
+    public static ExportedFunction bind(final String name, final MethodHandle handle, final boolean varargs) {
+        final MethodHandle mh = handle.asFixedArity();
+        final MethodType type = mh.type();
+        final int arity = type.parameterCount();
+
+        if (!varargs) {
+            // Spread the array into exactly arity arguments
+            return new ExportedFunction(name, spreadAll(mh, arity), null, arity, null);
+        }
+
+        final int spec = arity - 1;
+        if (spec < 0) {
+            throw new RuntimeException("Wtf? Varargs method without parameter slot?");
+        }
+
+        final Class<?> varargsType = type.parameterType(spec);
+        if (spec == 0 && varargsType == Object[].class) {
+            // The argument array is the varargs array
+            return new ExportedFunction(name, mh.asType(PASS_THROUGH), null, 0, varargsType);
+        }
+
+        final MethodType generic = MethodType.genericMethodType(spec).appendParameterTypes(varargsType);
+        return new ExportedFunction(name, null, mh.asType(generic), spec, varargsType);
+    }
+
+    private static MethodHandle spreadAll(final MethodHandle mh, final int arity) {
+        return mh.asType(MethodType.genericMethodType(arity)).asSpreader(Object[].class, arity);
+    }
+
+    private MethodHandle invokerFor(final int argc) {
+        if (invoker != null) return invoker;
+
+        if (argc < fixed) {
+            throw new IllegalArgumentException("Expected at least " + fixed + " arguments, got " + argc);
+        }
+
+        MethodHandle[] cache = byArity;
+        if (argc < cache.length && cache[argc] != null) return cache[argc];
+
+        final MethodHandle mh = spreadAll(target.asCollector(varargsType, argc - fixed), argc);
+        if (argc >= cache.length) cache = Arrays.copyOf(cache, argc + 1);
+        cache[argc] = mh;
+        byArity = cache;
+        return mh;
+    }
+
+    @Override
+    public Object apply(final Object[] args) {
+        try {
+            return (Object) invokerFor(args.length).invokeExact(args);
+        } catch (RuntimeException ex) {
+            throw new RuntimeException("Call to " + name + " failed", ex);
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new RuntimeException("Interface to " + name + " failed", ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<function " + name + ">";
+    }
+}
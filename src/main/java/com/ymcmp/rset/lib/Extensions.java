@@ -6,15 +6,15 @@
 package com.ymcmp.rset.lib;
 
 import java.util.Map;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Collections;
 
-import java.util.function.Function;
+import java.lang.invoke.MethodHandles;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.InvocationTargetException;
 
 public final class Extensions {
 
@@ -25,9 +25,26 @@ public final class Extensions {
 
     public static final int ENABLE_ALL = EXT_STDLIB | EXT_MATH | EXT_ARRAY | EXT_REFLECT;
 
+    // Libraries in the order they are exported, later ones win on conflict
+    private static final Class<?>[] LIBRARIES = {
+        Stdlib.class, Mathlib.class, Arraylib.class, Reflectlib.class
+    };
+
+    private static final int[] LIBRARY_MASKS = {
+        EXT_STDLIB, EXT_MATH, EXT_ARRAY, EXT_REFLECT
+    };
+
+    private static final Map<String, Method> BUILTINS = collectBuiltins();
+
     private final int featureMask;
     private final Map<String, Object> imported;
 
+    // Built on first use and rebuilt after every import
+    private volatile Map<String, Object> exports;
+    private volatile Map<String, Class<?>> origins;
+
+    private volatile int version;
+
     public Extensions() {
         this(ENABLE_ALL);
     }
@@ -41,61 +58,131 @@ public final class Extensions {
         return this.featureMask;
     }
 
+    /**
+     * Creates an environment for a single evaluation. The returned map is
+     * backed by a shared table of exports, anything put into it stays local
+     * to that environment.
+     */
     public Map<String, Object> export() {
-        final Map<String, Object> map = new HashMap<>();
-        exportTo(map);
-        return map;
+        return new Environment(getExports());
     }
 
     public void exportTo(Map<String, Object> module) {
-        if ((featureMask & EXT_STDLIB) == EXT_STDLIB) {
-            exportClassTo(Stdlib.class, module);
-        }
+        module.putAll(getExports());
+    }
 
-        if ((featureMask & EXT_MATH) == EXT_MATH) {
-            exportClassTo(Mathlib.class, module);
-        }
+    /**
+     * Checks if a name currently resolves to the export defined by one of
+     * the bundled libraries (and not to an imported class or a library that
+     * is disabled).
+     *
+     * @param name  Name of the export
+     * @param owner The library expected to provide it
+     */
+    public boolean isBuiltin(String name, Class<?> owner) {
+        getExports();
+        return origins.get(name) == owner;
+    }
 
-        if ((featureMask & EXT_ARRAY) == EXT_ARRAY) {
-            exportClassTo(Arraylib.class, module);
+    /**
+     * Changes every time a class is imported, callers that remember the
+     * result of isBuiltin have to check it again when this changes
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Finds the static method the bundled libraries would export under the
+     * given name, assuming every library is enabled and nothing is imported.
+     *
+     * @return the method or null if the name is not a static builtin method
+     */
+    public static Method findBuiltin(String name) {
+        return BUILTINS.get(name);
+    }
+
+    private Map<String, Object> getExports() {
+        Map<String, Object> table = exports;
+        if (table == null) {
+            synchronized (imported) {
+                table = exports;
+                if (table == null) {
+                    table = new HashMap<>();
+                    final Map<String, Class<?>> from = new HashMap<>();
+
+                    for (int i = 0; i < LIBRARIES.length; ++i) {
+                        if ((featureMask & LIBRARY_MASKS[i]) == LIBRARY_MASKS[i]) {
+                            final Map<String, Object> lib = new HashMap<>();
+                            exportClassTo(LIBRARIES[i], lib);
+                            table.putAll(lib);
+                            for (final String name : lib.keySet()) from.put(name, LIBRARIES[i]);
+                        }
+                    }
+
+                    table.putAll(imported);
+                    from.keySet().removeAll(imported.keySet());
+
+                    origins = from;
+                    exports = table = Collections.unmodifiableMap(table);
+                }
+            }
         }
+        return table;
+    }
 
-        if ((featureMask & EXT_REFLECT) == EXT_REFLECT) {
-            exportClassTo(Reflectlib.class, module);
+    public void importClass(Class<?> cl) {
+        synchronized (imported) {
+            exportClassTo(cl, imported);
+            exports = null;
+            ++version;
         }
+    }
 
-        module.putAll(imported);
+    private static String exportedName(AnnotatedElement elem, String fallback) {
+        final String name = elem.getAnnotation(Export.class).value();
+        return name == null || name.isEmpty() ? fallback : name;
     }
 
-    public void importClass(Class<?> cl) {
-        exportClassTo(cl, imported);
+    private static Map<String, Method> collectBuiltins() {
+        // Mirrors the order of exportClassTo: fields then methods, library by library
+        final Map<String, Method> map = new HashMap<>();
+        for (final Class<?> cl : LIBRARIES) {
+            for (final Field field : cl.getFields()) {
+                if (field.isAnnotationPresent(Export.class)) map.remove(exportedName(field, field.getName()));
+            }
+            for (final Method method : cl.getMethods()) {
+                if (!method.isAnnotationPresent(Export.class)) continue;
+
+                final String name = exportedName(method, method.getName());
+                if ((method.getModifiers() & Modifier.STATIC) == Modifier.STATIC) {
+                    map.put(name, method);
+                } else {
+                    map.remove(name);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(map);
     }
 
     public static void exportClassTo(Class<?> cl, Map<String, Object> module) {
         if (cl == null) return;
 
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
         // Make sure if it is static
         for (final Field field : cl.getFields()) {
             if (!field.isAnnotationPresent(Export.class)) continue;
 
-            String name = field.getAnnotation(Export.class).value();
-            if (name == null || name.isEmpty()) name = field.getName();
+            final String name = exportedName(field, field.getName());
 
             try {
                 if ((field.getModifiers() & Modifier.STATIC) == Modifier.STATIC) {
                     module.put(name, field.get(null));
                 } else {
                     // need object reference, convert into function call: self -> self.field
-                    module.put(name, new Function<Object[], Object>() {
-                        @Override
-                        public Object apply(final Object[] args) {
-                            try {
-                                return field.get(args[0]);
-                            } catch (IllegalAccessException ex) {
-                                throw new RuntimeException("Interface to " + cl.getSimpleName() + "#" + field.getName() + " failed", ex);
-                            }
-                        }
-                    });
+                    module.put(name, ExportedFunction.bind(cl.getSimpleName() + "#" + field.getName(),
+                            lookup.unreflectGetter(field), false));
                 }
             } catch (IllegalAccessException ex) {
                 throw new RuntimeException("Interface to " + cl.getSimpleName() + "." + field.getName() + " failed", ex);
@@ -105,48 +192,16 @@ public final class Extensions {
         for (final Method method : cl.getMethods()) {
             if (!method.isAnnotationPresent(Export.class)) continue;
 
-            String name = method.getAnnotation(Export.class).value();
-            if (name == null || name.isEmpty()) name = method.getName();
-
-            module.put(name, new Function<Object[], Object>() {
-                @Override
-                public Object apply(final Object[] rargs) {
-                    Object self = null;
-                    try {
-                        Object[] args;
-                        if ((method.getModifiers() & Modifier.STATIC) == Modifier.STATIC) {
-                            args = rargs;
-                        } else {
-                            // First parameter is treated as *self*
-                            self = rargs[0];
-                            args = Arrays.copyOfRange(rargs, 1, rargs.length);
-                        }
+            final String name = exportedName(method, method.getName());
 
-                        if (method.isVarArgs()) {
-                            final int spec = method.getParameterCount() - 1;
-                            if (spec < 0) {
-                                throw new RuntimeException("Wtf? Varargs method without parameter slot?");
-                            }
-                            if (spec == 0) {
-                                return method.invoke(self, (Object) args);
-                            } else {
-                                final Object[] fixedArgs = new Object[spec + 1];
-                                // Process non-varargs parameters
-                                System.arraycopy(args, 0, fixedArgs, 0, spec);
-                                // Process varargs parameters as Object[]
-                                fixedArgs[spec] = Arrays.copyOfRange(args, spec, args.length);
-                                return method.invoke(self, fixedArgs);
-                            }
-                        } else {
-                            return method.invoke(self, args);
-                        }
-                    } catch (IllegalAccessException | InvocationTargetException ex) {
-                        throw new RuntimeException("Interface to " + cl.getSimpleName() + (self == null ? "." : "#") + method.getName() + "(" + method.getParameterCount() + ") failed", ex);
-                    } catch (RuntimeException ex) {
-                        throw new RuntimeException("Call to " + cl.getSimpleName() + (self == null ? "." : "#") + method.getName() + "(" + method.getParameterCount() + ") failed", ex);
-                    }
-                }
-            });
+            // First parameter is treated as *self* for instance methods
+            final boolean isStatic = (method.getModifiers() & Modifier.STATIC) == Modifier.STATIC;
+            final String desc = cl.getSimpleName() + (isStatic ? "." : "#") + method.getName() + "(" + method.getParameterCount() + ")";
+            try {
+                module.put(name, ExportedFunction.bind(desc, lookup.unreflect(method), method.isVarArgs()));
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException("Interface to " + desc + " failed", ex);
+            }
         }
     }
-}
\ No newline at end of file
+}
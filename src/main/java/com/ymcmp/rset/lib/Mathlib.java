@@ -114,10 +114,73 @@ public final class Mathlib {
         // Comparing 0:Number and 1.0:Number will cause a
         // ClassCastException which is not what we want
         if (a instanceof Number && b instanceof Number) {
-            final BigDecimal lhs = new BigDecimal(a.toString());
-            final BigDecimal rhs = new BigDecimal(b.toString());
-            return lhs.compareTo(rhs);
+            return compareNumbers((Number) a, (Number) b);
         }
         return a.compareTo(b);
     }
-}
\ No newline at end of file
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+    }
+
+    private static boolean isFloating(Number n) {
+        return n instanceof Double || n instanceof Float;
+    }
+
+    /**
+     * Compares two numbers by their exact values. -0.0 equals 0.0 and NaN
+     * is greater than everything else (but equals itself). Only numbers
+     * other than the boxed primitives go through BigDecimal.
+     */
+    public static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a)) {
+            if (isIntegral(b)) return Long.compare(a.longValue(), b.longValue());
+            if (isFloating(b)) return compareLongDouble(a.longValue(), b.doubleValue());
+        } else if (isFloating(a)) {
+            if (isFloating(b)) return compareDoubles(a.doubleValue(), b.doubleValue());
+            if (isIntegral(b)) return -compareLongDouble(b.longValue(), a.doubleValue());
+        }
+        return compareBig(a, b);
+    }
+
+    private static int compareDoubles(double a, double b) {
+        if (a < b) return -1;
+        if (a > b) return 1;
+        if (a == b) return 0;
+        // At least one of them is NaN
+        return Boolean.compare(Double.isNaN(a), Double.isNaN(b));
+    }
+
+    private static int compareLongDouble(long a, double b) {
+        // Outside of this range b is larger (or smaller) than any long,
+        // inside of it the cast is exact up to the truncated fraction
+        if (Double.isNaN(b) || b >= 0x1p63) return -1;
+        if (b < -0x1p63) return 1;
+
+        final long t = (long) b;
+        if (a != t) return a < t ? -1 : 1;
+
+        final double frac = b - t;
+        return frac > 0 ? -1 : (frac < 0 ? 1 : 0);
+    }
+
+    private static int compareBig(Number a, Number b) {
+        // BigDecimal cannot represent NaN or the infinities
+        final boolean specialA = isFloating(a) && !Double.isFinite(a.doubleValue());
+        final boolean specialB = isFloating(b) && !Double.isFinite(b.doubleValue());
+        if (specialA || specialB) {
+            return compareDoubles(specialA ? a.doubleValue() : 0, specialB ? b.doubleValue() : 0);
+        }
+
+        final BigDecimal lhs = toBigDecimal(a);
+        final BigDecimal rhs = toBigDecimal(b);
+        return lhs.compareTo(rhs);
+    }
+
+    private static BigDecimal toBigDecimal(Number n) {
+        if (n instanceof BigDecimal) return (BigDecimal) n;
+        if (isIntegral(n)) return BigDecimal.valueOf(n.longValue());
+        if (isFloating(n)) return new BigDecimal(n.doubleValue());
+        return new BigDecimal(n.toString());
+    }
+}
@@ -5,9 +5,7 @@
 
 package com.ymcmp.rset.lib;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
 
 import java.util.List;
 import java.util.Arrays;
@@ -40,7 +38,7 @@ public final class Reflectlib {
     }
 
     private static List<Object> convertToArray(Object obj) {
-        final List<Object> list = Arraylib.polyArrayToList(obj);
+        final List<Object> list = Arraylib.asList(obj);
         if (list != null) return list;
         if (obj instanceof Collection) return new ArrayList<>((Collection<?>) obj);
         return null;
@@ -53,25 +51,27 @@ public final class Reflectlib {
             return "length".equals(name) ? Arraylib.polyArraylength(obj) : null;
         }
 
+        final MethodHandle getter = ClassMembers.of(obj.getClass()).getter(name);
+        if (getter == null) return null;
         try {
-            final Field field = obj.getClass().getField(name);
-            return field.get(obj);
-        } catch (NoSuchFieldException | IllegalAccessException ex) {
-            return null;
+            return (Object) getter.invokeExact(obj);
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
         }
     }
 
     private static Object accessMethod(Object obj, List<Object> sel) {
         if (sel.isEmpty()) return null;
         final String name = sel.get(0).toString();
-        final List<Object> params = sel.subList(1, sel.size());
+        final Object[] params = sel.subList(1, sel.size()).toArray();
+        final Class<?>[] types = new Class<?>[params.length];
+        for (int i = 0; i < params.length; ++i) types[i] = params[i].getClass();
 
+        final MethodHandle invoker = ClassMembers.of(obj.getClass()).invoker(name, types);
+        if (invoker == null) return null;
         try {
-            final Method method = obj.getClass().getMethod(name, params.stream().map(Object::getClass).toArray(Class[]::new));
-            return method.invoke(obj, params.toArray());
-        } catch (NoSuchMethodException | IllegalAccessException ex) {
-            return null;
-        } catch (InvocationTargetException ex) {
+            return (Object) invoker.invokeExact(obj, params);
+        } catch (Throwable ex) {
             throw new RuntimeException(ex);
         }
     }
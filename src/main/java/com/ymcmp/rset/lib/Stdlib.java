@@ -136,7 +136,7 @@ public final class Stdlib {
             if (k == null) {
                 sb.append("null");
             } else if (k.getClass().isArray()) {
-                flag = joinHelper(sb, Arraylib.polyArrayToList(k), c);
+                flag = joinHelper(sb, Arraylib.asList(k), c);
             } else if (k instanceof Map) {
                 flag = joinHelper(sb, ((Map<?, ?>) k).values(), c);
             } else if (k instanceof Collection) {
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.util.Map;
+import java.util.Arrays;
+
+/**
+ * Helpers for the captures of a rule. The capture names of a rule are known
+ * when it is compiled, so each one gets a slot in an array instead of an
+ * entry in a map.
+ */
+public final class Captures {
+
+    /**
+     * Held by the slots of captures that did not happen, action variables
+     * that were not assigned yet hold it too
+     */
+    public static final Object UNSET = new Object() {
+        @Override
+        public String toString() {
+            return "<unset>";
+        }
+    };
+
+    private Captures() {
+        //
+    }
+
+    public static Object[] create(final int size) {
+        final Object[] caps = new Object[size];
+        Arrays.fill(caps, UNSET);
+        return caps;
+    }
+
+    /**
+     * @return the captured value, the value bound to the name in the
+     *         environment if the capture did not happen
+     */
+    public static Object get(final Object[] caps, final int slot, final Map<String, Object> env, final String name) {
+        final Object value = caps[slot];
+        return value == UNSET ? env.get(name) : value;
+    }
+
+    /**
+     * Binds the captured value to the name in the environment, does nothing
+     * if the capture did not happen
+     */
+    public static void bind(final Object[] caps, final int slot, final Map<String, Object> env, final String name) {
+        final Object value = caps[slot];
+        if (value != UNSET) env.put(name, value);
+    }
+}
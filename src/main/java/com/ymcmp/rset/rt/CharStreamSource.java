@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.io.Reader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads characters from a Reader on demand. Only the characters between the
+ * last released index and the furthest index read so far are kept.
+ */
+/* package */ final class CharStreamSource extends InputSource {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final Reader reader;
+
+    private char[] buffer = new char[CHUNK_SIZE];
+
+    // buffer[head] is the element at index base, buffer[limit - 1] is the last one read
+    private int head;
+    private int limit;
+    private int base;
+
+    private boolean eof;
+
+    public CharStreamSource(Reader reader) {
+        super(Kind.CHAR);
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean hasIndex(int index) {
+        while (index - base >= limit - head) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    private boolean fill() {
+        if (eof) return false;
+        if (limit == buffer.length) makeRoom();
+
+        final int n;
+        try {
+            n = reader.read(buffer, limit, buffer.length - limit);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private void makeRoom() {
+        final int live = limit - head;
+        if (live * 2 > buffer.length) {
+            // Mostly unreleased data, compacting would not free enough
+            final char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, head, grown, 0, live);
+            buffer = grown;
+        } else {
+            System.arraycopy(buffer, head, buffer, 0, live);
+        }
+        head = 0;
+        limit = live;
+    }
+
+    private int offset(int index) {
+        final int off = index - base;
+        if (off < 0) {
+            throw new IllegalStateException("Index " + index + " was already released");
+        }
+        return head + off;
+    }
+
+    @Override
+    public Object get(int index) {
+        return buffer[offset(index)];
+    }
+
+    @Override
+    public char getChar(int index) {
+        return buffer[offset(index)];
+    }
+
+    @Override
+    public void release(int index) {
+        final int off = Math.min(index - base, limit - head);
+        if (off > 0) {
+            head += off;
+            base += off;
+        }
+    }
+
+    @Override
+    public int sizeHint() {
+        return limit - head;
+    }
+}
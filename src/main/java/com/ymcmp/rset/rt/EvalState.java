@@ -5,99 +5,278 @@
 
 package com.ymcmp.rset.rt;
 
-import java.lang.reflect.Method;
-
-import java.util.Stack;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.Collection;
-import java.util.EmptyStackException;
+import java.util.RandomAccess;
+
+import com.ymcmp.rset.lib.ClassMembers;
 
 import static com.ymcmp.rset.lib.Mathlib.compare;
-import static com.ymcmp.rset.lib.Arraylib.polyArrayToList;
+import static com.ymcmp.rset.lib.Arraylib.asList;
 
 public class EvalState {
 
-    protected final Stack<Integer> indexes = new Stack<>();
+    // The saved positions live in the generated code, only the number of
+    // them not yet undone or committed is kept
+    private int position;
+    private int marks;
+
+    protected InputSource input;
+
+    // Cached from input, checked by every primitive test
+    private InputSource.Kind kind;
+
+    private MemoTable memo;
 
-    protected Object[] data;
+    private Object result;
 
-    private boolean negateFlag;
+    // Positions past this one are kept by streaming sources (for retrying)
+    private int releaseLimit;
+
+    // Set while matching against the elements of a destructed element
+    private Frame frame;
 
     public void setData(Object... data) {
-        this.data = data;
+        setInput(InputSource.of(data));
     }
 
-    public void setNegateFlag(boolean flag) {
-        this.negateFlag = flag;
+    public void setInput(InputSource input) {
+        this.input = input;
+        this.kind = input.getKind();
     }
 
-    public boolean getNegateFlag() {
-        return this.negateFlag;
+    public InputSource getInput() {
+        return this.input;
     }
 
     public void reset() {
-        data = new Object[0];
-        indexes.clear();
-        indexes.push(0);
-        negateFlag = false;
+        setInput(InputSource.EMPTY);
+        position = 0;
+        marks = 0;
+        memo = null;
+        result = null;
+        releaseLimit = Integer.MAX_VALUE;
+        frame = null;
+    }
+
+    /**
+     * Starts over at the position, but keeps memoized results since they
+     * only depend on where a rule was tried. Used when the same rule is
+     * tried at different offsets of the input.
+     */
+    public void restart(final int position) {
+        this.position = position;
+        this.marks = 0;
+        result = null;
+        releaseLimit = position;
+    }
+
+    public Object getResult() {
+        return this.result;
+    }
+
+    public void setResult(Object result) {
+        this.result = result;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Looks up the outcome of a memoized rule at the current position. If the
+     * rule was known to match, the position is moved to where that match ended.
+     *
+     * @param key Picked by the generated code, the same rule gets a different
+     *            key when it is matched under negation
+     *
+     * @return
+     *   - MemoTable.MISS if the rule was never tried at this position,
+     *   - MemoTable.FAIL if the rule is known to fail at this position,
+     *   - The result of the rule otherwise
+     */
+    public Object recall(final int key) {
+        if (memo == null) return MemoTable.MISS;
+
+        final int pos = position;
+        final int end = memo.lookupEnd(key, pos);
+        if (end == 0) return MemoTable.MISS;
+        if (end < 0) return MemoTable.FAIL;
+
+        position = end - 1;
+        return memo.lookupValue(key, pos);
+    }
+
+    public void memorize(final int key, final int start, final boolean success, final Object value) {
+        if (memo == null) memo = new MemoTable(input.sizeHint() + 1);
+        memo.store(key, start, success ? position : -1, value);
     }
 
     public Object next() {
-        try {
-            final int i = indexes.pop();
-            indexes.push(i + 1);
-            return data[i];
-        } catch (IndexOutOfBoundsException ex) {
-            prev();
-            return Epsilon.INSTANCE;
-        }
+        final int i = position;
+        if (!input.hasIndex(i)) return Epsilon.INSTANCE;
+
+        advance(i);
+        return input.get(i);
+    }
+
+    /**
+     * Same as next, but does not move the position
+     */
+    public Object peek() {
+        final int i = position;
+        return input.hasIndex(i) ? input.get(i) : Epsilon.INSTANCE;
+    }
+
+    /**
+     * @return
+     *   - The char at the position if the input is made of chars,
+     *   - -1 if there is nothing left,
+     *   - -2 if the input is not made of chars
+     */
+    public int peekChar() {
+        if (kind != InputSource.Kind.CHAR) return -2;
+
+        final int i = position;
+        return input.hasIndex(i) ? input.getChar(i) : -1;
+    }
+
+    /**
+     * @return true if the input is made of ints and there is one left
+     */
+    public boolean canPeekInt() {
+        return kind == InputSource.Kind.INT && input.hasIndex(position);
+    }
+
+    /**
+     * Only valid if canPeekInt returns true
+     */
+    public int peekInt() {
+        return input.getInt(position);
+    }
+
+    private void advance(final int i) {
+        position = i + 1;
     }
 
     public void prev() {
-        final int i = indexes.pop();
-        indexes.push(i - 1);
+        --position;
     }
 
-    public void unsave() {
-        indexes.pop();
+    /**
+     * Marks the position as one that can be backtracked to. Every save must
+     * be followed by either unsave or updateSave.
+     *
+     * @return the position, which is passed back to unsave
+     */
+    public int save() {
+        ++marks;
+        return position;
     }
 
-    public void save() {
-        indexes.push(indexes.peek());
+    /**
+     * Backtracks to the position returned by the matching save
+     */
+    public void unsave(final int saved) {
+        position = saved;
+        --marks;
+        releaseCommitted();
     }
 
+    /**
+     * Keeps the current position, the matching save can no longer be
+     * backtracked to
+     */
     public void updateSave() {
-        final int i = indexes.pop();
-        indexes.pop();
-        indexes.push(i);
+        --marks;
+        releaseCommitted();
     }
 
-    public EvalState destructArray() {
-        final Object k = next();
-        if (k == null) return null;
-
-        Object[] destruct = null;
-        if (k instanceof Collection) {
-            destruct = ((Collection<?>) k).toArray();
-        } else {
-            final Collection<Object> boxed = polyArrayToList(k);
-            if (boxed == null) {
-                return null;
-            } else {
-                destruct = boxed.toArray();
-            }
+    private void releaseCommitted() {
+        // Without any saves left, nothing before the position can be backtracked to
+        if (marks == 0) input.release(Math.min(position, releaseLimit));
+    }
+
+    /**
+     * What enterArray replaced, put back by exitArray
+     */
+    private static final class Frame {
+
+        final Frame outer;
+        final InputSource input;
+        final MemoTable memo;
+        final int position;
+        final int marks;
+        final int releaseLimit;
+
+        Frame(Frame outer, InputSource input, MemoTable memo, int position, int marks, int releaseLimit) {
+            this.outer = outer;
+            this.input = input;
+            this.memo = memo;
+            this.position = position;
+            this.marks = marks;
+            this.releaseLimit = releaseLimit;
         }
+    }
+
+    /**
+     * Wraps an element that can be destructed without copying it: arrays,
+     * random access lists are indexed in place, other collections and
+     * iterables are iterated over as the elements are needed.
+     *
+     * @return null if the element cannot be destructed
+     */
+    private static InputSource destruct(final Object k) {
+        if (k instanceof Object[]) return InputSource.of((Object[]) k);
+        if (k instanceof char[]) return InputSource.of((char[]) k);
+        if (k instanceof int[]) return InputSource.of((int[]) k);
+        if (k instanceof List && k instanceof RandomAccess) return InputSource.of((List<?>) k);
+        if (k instanceof Iterable) return InputSource.of(((Iterable<?>) k).iterator());
+
+        final List<Object> view = asList(k);
+        return view == null ? null : InputSource.of(view);
+    }
 
-        final EvalState destructedState = new EvalState();
-        destructedState.reset();
-        destructedState.setData(destruct);
-        destructedState.setNegateFlag(this.negateFlag);
-        return destructedState;
+    /**
+     * Takes the next element and, if it can be destructed, matches against
+     * its elements from now on until exitArray is called. The position and
+     * memoized results of the current input are kept aside until then.
+     *
+     * @return false if the element cannot be destructed, the input does not
+     *         change in that case
+     */
+    public boolean enterArray() {
+        final Object k = next();
+        if (k == null) return false;
+
+        final InputSource destruct = destruct(k);
+        if (destruct == null) return false;
+
+        frame = new Frame(frame, input, memo, position, marks, releaseLimit);
+        position = 0;
+        marks = 0;
+        setInput(destruct);
+        memo = null;
+        releaseLimit = Integer.MAX_VALUE;
+        return true;
     }
 
-    private boolean processNegate(final boolean b) {
-        return negateFlag ? !b : b;
+    /**
+     * Goes back to the input before the last successful enterArray
+     */
+    public void exitArray() {
+        final Frame f = frame;
+        setInput(f.input);
+        memo = f.memo;
+        position = f.position;
+        marks = f.marks;
+        releaseLimit = f.releaseLimit;
+        frame = f.outer;
+    }
+
+    private static boolean processNegate(final boolean negate, final boolean b) {
+        return negate ? !b : b;
     }
 
     private boolean condAdd(final boolean test, final Object k, final Collection<Object> col) {
@@ -108,58 +287,129 @@ public class EvalState {
         return false;
     }
 
-    public boolean testInheritance(final Class cl, final boolean from, final Collection<Object> col) {
+    public boolean testInheritance(final Class cl, final boolean from, final boolean negate, final Collection<Object> col) {
         final Object k = next();
 
-        // null is not a type, without negateFlag, it will always be false
-        if (k == null) return condAdd(negateFlag, null, col);
+        // null is not a type, without negation, it will always be false
+        if (k == null) return condAdd(negate, null, col);
 
         final Class ck = k.getClass();
-        return condAdd(processNegate(from ? cl.isAssignableFrom(ck) : ck.isAssignableFrom(cl)), k, col);
-    }
-
-    private static boolean classHasField(final Class<?> cl, final String selector) {
-        // Arrays have length as attribute but
-        // it is actually not a field to the class's concern
-        if (cl.isArray()) {
-            return "length".equals(selector);
-        } else {
-            try {
-                // Is it even possible for getField to return null?
-                return cl.getField(selector) != null;
-            } catch (NoSuchFieldException ex) {
-                // class does not have field that is public
-            }
-        }
-        return false;
-    }
-
-    private static boolean classHasMethod(final Class<?> cl, final String selector) {
-        // Not using cl.getMethod(selector) because only care if method exists,
-        // whereas getMethod expects us to know the parameter types
-        for (final Method m : cl.getMethods()) {
-            if (m.getName().equals(selector)) return true;
-        }
-        return false;
+        return condAdd(processNegate(negate, from ? cl.isAssignableFrom(ck) : ck.isAssignableFrom(cl)), k, col);
     }
 
-    public boolean hasFieldOrMethod(final String selector, final Collection<Object> col) {
+    public boolean hasFieldOrMethod(final String selector, final boolean negate, final Collection<Object> col) {
         final Object k = next();
 
         // null can not contain any field or method
-        // if negateFlag is on, this must return true
-        if (k == null) return condAdd(negateFlag, null, col);
+        // if negated, this must return true
+        if (k == null) return condAdd(negate, null, col);
 
-        final Class<?> cl = k.getClass();
-        return condAdd(processNegate(classHasField(cl, selector)) || processNegate(classHasMethod(cl, selector)), k, col);
+        final ClassMembers members = ClassMembers.of(k.getClass());
+        return condAdd(processNegate(negate, members.hasField(selector)) || processNegate(negate, members.hasMethod(selector)), k, col);
     }
 
-    public boolean testEquality(final Object obj, final Collection<Object> col) {
+    public boolean testEquality(final Object obj, final boolean negate, final Collection<Object> col) {
         final Object k = next();
-        return condAdd(!Epsilon.INSTANCE.equals(k) && processNegate(Objects.equals(obj, k)), k, col);
+        return condAdd(!Epsilon.INSTANCE.equals(k) && processNegate(negate, Objects.equals(obj, k)), k, col);
+    }
+
+    /**
+     * Same as testEquality with a Character, but compares without boxing if
+     * the input is made of chars
+     */
+    public boolean testChar(final char c, final boolean negate, final Collection<Object> col) {
+        if (kind != InputSource.Kind.CHAR) return testEquality(c, negate, col);
+
+        final int i = position;
+        if (!input.hasIndex(i)) return false;
+
+        advance(i);
+        final char k = input.getChar(i);
+        return processNegate(negate, k == c) && condAdd(true, k, col);
+    }
+
+    /**
+     * Same as testEquality with an Integer, but compares without boxing if
+     * the input is made of ints
+     */
+    public boolean testInt(final int c, final boolean negate, final Collection<Object> col) {
+        if (kind != InputSource.Kind.INT) return testEquality(c, negate, col);
+
+        final int i = position;
+        if (!input.hasIndex(i)) return false;
+
+        advance(i);
+        final int k = input.getInt(i);
+        return processNegate(negate, k == c) && condAdd(true, k, col);
+    }
+
+    /**
+     * Same as testRange with Characters, but compares without boxing if the
+     * input is made of chars
+     */
+    public boolean testCharRange(final char a, final char b, final boolean negate, final Collection<Object> col) {
+        if (kind != InputSource.Kind.CHAR) return testRange(a, b, negate, col);
+
+        final int i = position;
+        if (!input.hasIndex(i)) return false;
+
+        advance(i);
+        final char k = input.getChar(i);
+        return processNegate(negate, a <= k && k <= b || b <= k && k <= a) && condAdd(true, k, col);
+    }
+
+    /**
+     * Same as testRange with Integers, but compares without boxing if the
+     * input is made of ints
+     */
+    public boolean testIntRange(final int a, final int b, final boolean negate, final Collection<Object> col) {
+        if (kind != InputSource.Kind.INT) return testRange(a, b, negate, col);
+
+        final int i = position;
+        if (!input.hasIndex(i)) return false;
+
+        advance(i);
+        final int k = input.getInt(i);
+        return processNegate(negate, a <= k && k <= b || b <= k && k <= a) && condAdd(true, k, col);
+    }
+
+    /**
+     * Same as testing each char and char range of the set as alternatives,
+     * but only looks at the element once
+     */
+    public boolean testCharSet(final RangeSet set, final boolean negate, final Collection<Object> col) {
+        if (kind != InputSource.Kind.CHAR) {
+            final Object k = next();
+            return condAdd(!Epsilon.INSTANCE.equals(k) && processNegate(negate, set.containsChar(k)), k, col);
+        }
+
+        final int i = position;
+        if (!input.hasIndex(i)) return false;
+
+        advance(i);
+        final char k = input.getChar(i);
+        return processNegate(negate, set.contains(k)) && condAdd(true, k, col);
+    }
+
+    /**
+     * Same as testing each int and int range of the set as alternatives,
+     * but only looks at the element once
+     */
+    public boolean testIntSet(final RangeSet set, final boolean negate, final Collection<Object> col) {
+        if (kind != InputSource.Kind.INT) {
+            final Object k = next();
+            return condAdd(!Epsilon.INSTANCE.equals(k) && processNegate(negate, set.containsNumber(k)), k, col);
+        }
+
+        final int i = position;
+        if (!input.hasIndex(i)) return false;
+
+        advance(i);
+        final int k = input.getInt(i);
+        return processNegate(negate, set.contains(k)) && condAdd(true, k, col);
     }
 
-    public boolean testRange(final Comparable a, final Comparable b, final Collection<Object> col) {
+    public boolean testRange(final Comparable a, final Comparable b, final boolean negate, final Collection<Object> col) {
         final Object k = next();
         try {
             // To be in range, either:
@@ -173,22 +423,22 @@ public class EvalState {
             final Comparable<?> ck = (Comparable<?>) k;
             final int u = compare(a, ck);
             final int v = compare(b, ck);
-            return condAdd(processNegate(u <= 0 && v >= 0 || v <= 0 && u >= 0), k, col);
+            return condAdd(processNegate(negate, u <= 0 && v >= 0 || v <= 0 && u >= 0), k, col);
         } catch (ClassCastException | NullPointerException ex) {
             // current slot value does not belong in set,
             // which satisfies *not* being in range.
-            // return true if negate flag is on
-            return condAdd(!Epsilon.INSTANCE.equals(k) && negateFlag, k, col);
+            // return true if negated
+            return condAdd(!Epsilon.INSTANCE.equals(k) && negate, k, col);
         }
     }
 
-    public boolean testSlotOccupied(Collection<Object> col) {
+    public boolean testSlotOccupied(final boolean negate, final Collection<Object> col) {
         final Object k = next();
-        return condAdd(processNegate(!Epsilon.INSTANCE.equals(k)), k, col);
+        return condAdd(processNegate(negate, !Epsilon.INSTANCE.equals(k)), k, col);
     }
 
-    public boolean testEnd(Collection<Object> col) {
+    public boolean testEnd(final boolean negate, final Collection<Object> col) {
         final Object k = next();
-        return condAdd(processNegate(Epsilon.INSTANCE.equals(k)), k, col);
+        return condAdd(processNegate(negate, Epsilon.INSTANCE.equals(k)), k, col);
     }
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.io.Reader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.List;
+import java.util.Iterator;
+import java.util.RandomAccess;
+
+/**
+ * The data a rule is matched against. Sources backed by text or primitive
+ * arrays report a primitive element kind so the generated tests can compare
+ * elements without boxing them first.
+ */
+public abstract class InputSource {
+
+    public enum Kind {
+        OBJECT, CHAR, INT;
+    }
+
+    public static final InputSource EMPTY = of(new Object[0]);
+
+    private final Kind kind;
+
+    protected InputSource(Kind kind) {
+        this.kind = kind;
+    }
+
+    public final Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * @return true if there is an element at the index
+     */
+    public abstract boolean hasIndex(int index);
+
+    /**
+     * @return the element at the index, primitive elements are boxed
+     */
+    public abstract Object get(int index);
+
+    /**
+     * Only supported by sources of Kind.CHAR
+     */
+    public char getChar(int index) {
+        throw new UnsupportedOperationException("Not a char source");
+    }
+
+    /**
+     * Only supported by sources of Kind.INT
+     */
+    public int getInt(int index) {
+        throw new UnsupportedOperationException("Not an int source");
+    }
+
+    /**
+     * @return the number of elements or a guess if it is not known upfront
+     */
+    public abstract int sizeHint();
+
+    /**
+     * Tells the source that elements before the index will not be read
+     * again. Streaming sources use this to discard their buffered data, the
+     * other sources ignore it.
+     */
+    public void release(int index) {
+        // Nothing is buffered by default
+    }
+
+    public static InputSource of(final Object... data) {
+        return new InputSource(Kind.OBJECT) {
+            @Override
+            public boolean hasIndex(int index) {
+                return index < data.length;
+            }
+
+            @Override
+            public Object get(int index) {
+                return data[index];
+            }
+
+            @Override
+            public int sizeHint() {
+                return data.length;
+            }
+        };
+    }
+
+    public static InputSource of(final List<?> data) {
+        if (!(data instanceof RandomAccess)) {
+            // Indexing a linked list is linear
+            return of(data.toArray());
+        }
+
+        return new InputSource(Kind.OBJECT) {
+            @Override
+            public boolean hasIndex(int index) {
+                return index < data.size();
+            }
+
+            @Override
+            public Object get(int index) {
+                return data.get(index);
+            }
+
+            @Override
+            public int sizeHint() {
+                return data.size();
+            }
+        };
+    }
+
+    public static InputSource of(final CharSequence data) {
+        return new InputSource(Kind.CHAR) {
+            @Override
+            public boolean hasIndex(int index) {
+                return index < data.length();
+            }
+
+            @Override
+            public Object get(int index) {
+                return data.charAt(index);
+            }
+
+            @Override
+            public char getChar(int index) {
+                return data.charAt(index);
+            }
+
+            @Override
+            public int sizeHint() {
+                return data.length();
+            }
+        };
+    }
+
+    public static InputSource of(final char[] data) {
+        return new InputSource(Kind.CHAR) {
+            @Override
+            public boolean hasIndex(int index) {
+                return index < data.length;
+            }
+
+            @Override
+            public Object get(int index) {
+                return data[index];
+            }
+
+            @Override
+            public char getChar(int index) {
+                return data[index];
+            }
+
+            @Override
+            public int sizeHint() {
+                return data.length;
+            }
+        };
+    }
+
+    /**
+     * Treats every byte as a ISO-8859-1 (Latin-1) character
+     */
+    public static InputSource of(final byte[] data) {
+        return new InputSource(Kind.CHAR) {
+            @Override
+            public boolean hasIndex(int index) {
+                return index < data.length;
+            }
+
+            @Override
+            public Object get(int index) {
+                return (char) (data[index] & 0xFF);
+            }
+
+            @Override
+            public char getChar(int index) {
+                return (char) (data[index] & 0xFF);
+            }
+
+            @Override
+            public int sizeHint() {
+                return data.length;
+            }
+        };
+    }
+
+    public static InputSource of(final int[] data) {
+        return new InputSource(Kind.INT) {
+            @Override
+            public boolean hasIndex(int index) {
+                return index < data.length;
+            }
+
+            @Override
+            public Object get(int index) {
+                return data[index];
+            }
+
+            @Override
+            public int getInt(int index) {
+                return data[index];
+            }
+
+            @Override
+            public int sizeHint() {
+                return data.length;
+            }
+        };
+    }
+
+    /**
+     * Pulls elements from the iterator as they are needed. Elements that can
+     * no longer be backtracked to are discarded, so the source can only be
+     * matched against once.
+     */
+    public static InputSource of(final Iterator<?> data) {
+        return new IteratorSource(data);
+    }
+
+    /**
+     * Reads characters from the reader as they are needed. Characters that
+     * can no longer be backtracked to are discarded, so the source can only
+     * be matched against once.
+     */
+    public static InputSource of(final Reader data) {
+        return new CharStreamSource(data);
+    }
+
+    /**
+     * Same as of(Reader), every byte is treated as a ISO-8859-1 (Latin-1)
+     * character
+     */
+    public static InputSource of(final InputStream data) {
+        return new CharStreamSource(new InputStreamReader(data, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Maps the file into memory and reads every byte as a ISO-8859-1
+     * (Latin-1) character without copying it onto the heap.
+     *
+     * @throws IOException if the file is larger than Integer.MAX_VALUE bytes
+     */
+    public static InputSource map(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Mappings stay valid after the channel is closed
+            return map(channel);
+        }
+    }
+
+    /**
+     * Maps the entire channel. Positions are ints, so this fails instead of
+     * leaving out the bytes past Integer.MAX_VALUE, use map(FileChannel, long,
+     * int) to match against regions of larger files.
+     *
+     * @throws IOException if the channel is larger than Integer.MAX_VALUE bytes
+     */
+    public static InputSource map(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Cannot map " + size + " bytes at once, use map(FileChannel, long, int) to map a region");
+        }
+        return map(channel, 0, (int) size);
+    }
+
+    /**
+     * Maps size bytes of the channel starting at position (which can be past
+     * the first 2GB of the file)
+     */
+    public static InputSource map(final FileChannel channel, final long position, final int size) throws IOException {
+        return new MappedFileSource(channel, position, size);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Pulls elements from an Iterator one at a time, only when a test needs
+ * them. Only the elements between the last released index and the furthest
+ * index read so far are kept.
+ */
+/* package */ final class IteratorSource extends InputSource {
+
+    private static final int INITIAL_SIZE = 16;
+
+    private final Iterator<?> iterator;
+
+    private Object[] buffer = new Object[INITIAL_SIZE];
+
+    // buffer[head] is the element at index base, buffer[limit - 1] is the last one read
+    private int head;
+    private int limit;
+    private int base;
+
+    public IteratorSource(Iterator<?> iterator) {
+        super(Kind.OBJECT);
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasIndex(int index) {
+        while (index - base >= limit - head) {
+            if (!iterator.hasNext()) return false;
+            if (limit == buffer.length) makeRoom();
+            buffer[limit++] = iterator.next();
+        }
+        return true;
+    }
+
+    private void makeRoom() {
+        final int live = limit - head;
+        if (live * 2 > buffer.length) {
+            buffer = Arrays.copyOfRange(buffer, head, buffer.length * 2);
+        } else {
+            System.arraycopy(buffer, head, buffer, 0, live);
+            Arrays.fill(buffer, live, limit, null);
+        }
+        head = 0;
+        limit = live;
+    }
+
+    @Override
+    public Object get(int index) {
+        final int off = index - base;
+        if (off < 0) {
+            throw new IllegalStateException("Index " + index + " was already released");
+        }
+        return buffer[head + off];
+    }
+
+    @Override
+    public void release(int index) {
+        final int off = Math.min(index - base, limit - head);
+        if (off > 0) {
+            // Let the released elements be collected
+            Arrays.fill(buffer, head, head + off, null);
+            head += off;
+            base += off;
+        }
+    }
+
+    @Override
+    public int sizeHint() {
+        return limit - head;
+    }
+}
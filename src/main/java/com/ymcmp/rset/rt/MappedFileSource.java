@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.io.IOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads bytes of a file region as ISO-8859-1 (Latin-1) characters straight
+ * from memory mappings. The region is split into several mappings so each
+ * one stays well below the size limit of a single buffer.
+ */
+/* package */ final class MappedFileSource extends InputSource {
+
+    private static final int CHUNK_BITS = 30;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final int size;
+
+    public MappedFileSource(FileChannel channel, long position, int size) throws IOException {
+        super(Kind.CHAR);
+        if (size < 0) throw new IllegalArgumentException("Negative size: " + size);
+
+        this.size = size;
+        this.chunks = new MappedByteBuffer[(int) (((long) size + CHUNK_MASK) >>> CHUNK_BITS)];
+        for (int i = 0; i < chunks.length; ++i) {
+            final long start = (long) i << CHUNK_BITS;
+            final long length = Math.min(1L << CHUNK_BITS, size - start);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, length);
+        }
+    }
+
+    @Override
+    public boolean hasIndex(int index) {
+        return index < size;
+    }
+
+    @Override
+    public Object get(int index) {
+        return getChar(index);
+    }
+
+    @Override
+    public char getChar(int index) {
+        // Absolute get, does not touch the position of the buffer
+        return (char) (chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK) & 0xFF);
+    }
+
+    @Override
+    public int sizeHint() {
+        return size;
+    }
+}
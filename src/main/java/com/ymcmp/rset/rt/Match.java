@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+/**
+ * A successful match of a rule over the input range [start, end)
+ */
+public final class Match {
+
+    private final String rule;
+    private final int start;
+    private final int end;
+    private final Object value;
+
+    public Match(int start, int end, Object value) {
+        this(null, start, end, value);
+    }
+
+    public Match(String rule, int start, int end, Object value) {
+        this.rule = rule;
+        this.start = start;
+        this.end = end;
+        this.value = value;
+    }
+
+    /**
+     * @return the name of the rule that matched, null if it is not known
+     */
+    public String getRule() {
+        return this.rule;
+    }
+
+    public int getStart() {
+        return this.start;
+    }
+
+    public int getEnd() {
+        return this.end;
+    }
+
+    /**
+     * @return the result of the action of the rule
+     */
+    public Object getValue() {
+        return this.value;
+    }
+
+    @Override
+    public String toString() {
+        return (rule == null ? "Match" : rule) + "[" + start + ", " + end + "): " + value;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.util.Arrays;
+
+/**
+ * Packrat table keyed by (slot, input position). Each slot gets its own
+ * row of primitive end positions and a parallel row of results, both of
+ * which grow on demand, so no boxing happens on lookup or store.
+ */
+public final class MemoTable {
+
+    /**
+     * Returned by {@link #recall} when nothing is known about a position
+     */
+    public static final Object MISS = new Object() {
+        @Override
+        public String toString() {
+            return "<memo miss>";
+        }
+    };
+
+    /**
+     * Returned by {@link #recall} when the slot is known to fail at a position
+     */
+    public static final Object FAIL = new Object() {
+        @Override
+        public String toString() {
+            return "<memo fail>";
+        }
+    };
+
+    private static final int[] NO_ENDS = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    // ends[slot][pos] is 0 if unknown, -1 if failed, end position + 1 otherwise
+    private int[][] ends = new int[0][];
+    private Object[][] values = new Object[0][];
+
+    private final int sizeHint;
+
+    public MemoTable(int sizeHint) {
+        this.sizeHint = Math.max(sizeHint, 1);
+    }
+
+    public int lookupEnd(int slot, int pos) {
+        if (slot >= ends.length) return 0;
+        final int[] row = ends[slot];
+        return pos < row.length ? row[pos] : 0;
+    }
+
+    public Object lookupValue(int slot, int pos) {
+        return values[slot][pos];
+    }
+
+    public void store(int slot, int pos, int end, Object value) {
+        ensureCapacity(slot, pos);
+        ends[slot][pos] = end < 0 ? -1 : end + 1;
+        values[slot][pos] = value;
+    }
+
+    private void ensureCapacity(int slot, int pos) {
+        if (slot >= ends.length) {
+            final int oldLength = ends.length;
+            ends = Arrays.copyOf(ends, slot + 1);
+            values = Arrays.copyOf(values, slot + 1);
+            Arrays.fill(ends, oldLength, ends.length, NO_ENDS);
+            Arrays.fill(values, oldLength, values.length, NO_VALUES);
+        }
+
+        final int[] row = ends[slot];
+        if (pos >= row.length) {
+            int newLength = Math.max(row.length, sizeHint);
+            while (newLength <= pos) newLength <<= 1;
+            ends[slot] = Arrays.copyOf(row, newLength);
+            values[slot] = Arrays.copyOf(values[slot], newLength);
+        }
+    }
+}
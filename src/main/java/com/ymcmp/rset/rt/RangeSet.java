@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.util.Arrays;
+
+import static com.ymcmp.rset.lib.Mathlib.compare;
+
+/**
+ * A set of chars or ints made of single values and inclusive ranges. Used
+ * by the generated code to test an element against several alternatives
+ * at once. Members below 256 are kept in a bitset, the others are found by
+ * binary searching the merged ranges.
+ */
+public final class RangeSet {
+
+    private final long[] latin1 = new long[4];
+
+    // Sorted and merged, bounds[2i] to bounds[2i + 1] inclusive
+    private final int[] bounds;
+
+    // As given, needed to compare boxed elements the way testRange would
+    private final int[] spans;
+
+    /**
+     * @param values the single values
+     * @param spans pairs of range bounds, in any order
+     */
+    public RangeSet(int[] values, int[] spans) {
+        this.spans = spans.clone();
+
+        final int n = values.length + spans.length / 2;
+        final long[] ranges = new long[n];
+        int k = 0;
+        for (final int v : values) ranges[k++] = pack(v, v);
+        for (int i = 0; i < spans.length; i += 2) {
+            ranges[k++] = pack(Math.min(spans[i], spans[i + 1]), Math.max(spans[i], spans[i + 1]));
+        }
+        Arrays.sort(ranges);
+
+        final int[] merged = new int[n * 2];
+        int m = 0;
+        for (final long r : ranges) {
+            final int lo = (int) (r >> 32);
+            final int hi = (int) r;
+            if (m > 0 && (long) lo <= (long) merged[m - 1] + 1) {
+                merged[m - 1] = Math.max(merged[m - 1], hi);
+            } else {
+                merged[m++] = lo;
+                merged[m++] = hi;
+            }
+
+            for (int c = Math.max(lo, 0); c <= hi && c < 256; ++c) {
+                latin1[c >>> 6] |= 1L << c;
+            }
+        }
+        this.bounds = Arrays.copyOf(merged, m);
+    }
+
+    private static long pack(int lo, int hi) {
+        // Sorts by lo since lo is signed in the high half
+        return (long) lo << 32 | (hi & 0xFFFFFFFFL);
+    }
+
+    public boolean contains(final int k) {
+        if (k >= 0 && k < 256) return (latin1[k >>> 6] & (1L << k)) != 0;
+
+        int lo = 0;
+        int hi = bounds.length / 2 - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (k < bounds[mid * 2]) {
+                hi = mid - 1;
+            } else if (k > bounds[mid * 2 + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Membership of a boxed element in a set of chars. Chars only ever
+     * equal or compare to other chars.
+     */
+    public boolean containsChar(final Object k) {
+        return k instanceof Character && contains((Character) k);
+    }
+
+    /**
+     * Membership of a boxed element in a set of ints. Single values have
+     * to be Integers, but ranges compare numerically with any Number.
+     */
+    public boolean containsNumber(final Object k) {
+        if (k instanceof Integer) return contains((Integer) k);
+
+        for (int i = 0; i < spans.length; i += 2) {
+            try {
+                final Comparable<?> ck = (Comparable<?>) k;
+                final int u = compare(spans[i], ck);
+                final int v = compare(spans[i + 1], ck);
+                if (u <= 0 && v >= 0 || v <= 0 && u >= 0) return true;
+            } catch (ClassCastException | NullPointerException ex) {
+                // Not comparable with numbers, so not in range
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -5,9 +5,232 @@
 
 package com.ymcmp.rset.rt;
 
+import java.io.Reader;
+import java.io.InputStream;
+
+import java.util.List;
+import java.util.Iterator;
+import java.util.ArrayList;
+
 import java.util.function.Function;
 
 @FunctionalInterface
 public interface Rule extends Function<Object[], Object> {
 
-}
\ No newline at end of file
+    /**
+     * Tries to match at the current position of the state. On success, the
+     * position is moved past the match and the result of the action is
+     * stored in the state.
+     *
+     * Rules that only implement apply(Object[]) are given the rest of the
+     * input (which is read to its end) and do not move the position, they
+     * cannot tell how much of it they matched.
+     */
+    public default boolean match(EvalState state) {
+        final InputSource input = state.getInput();
+        final List<Object> rest = new ArrayList<>();
+        for (int i = state.getPosition(); input.hasIndex(i); ++i) {
+            rest.add(input.get(i));
+        }
+
+        final Object result = apply(rest.toArray());
+        if (result == null) return false;
+        state.setResult(result);
+        return true;
+    }
+
+    /**
+     * Same as match, but only moves the position. Generated rules do not
+     * build the parse stack, capture or run any actions for this, so they do
+     * not allocate. Other rules fall back to match.
+     */
+    public default boolean recognize(EvalState state) {
+        return match(state);
+    }
+
+    /**
+     * @return a literal every match must start with, empty if there is none
+     */
+    public default String getLiteralPrefix() {
+        return "";
+    }
+
+    /**
+     * Matches from the start of the input
+     *
+     * @return the result of the action, null if the rule does not match
+     */
+    public default Object apply(InputSource input) {
+        final EvalState state = new EvalState();
+        state.reset();
+        state.setInput(input);
+        return match(state) ? state.getResult() : null;
+    }
+
+    public default Object apply(List<?> data) {
+        return apply(InputSource.of(data));
+    }
+
+    public default Object apply(CharSequence data) {
+        return apply(InputSource.of(data));
+    }
+
+    public default Object apply(char[] data) {
+        return apply(InputSource.of(data));
+    }
+
+    /**
+     * Matches against the bytes as if they were ISO-8859-1 (Latin-1) characters
+     */
+    public default Object apply(byte[] data) {
+        return apply(InputSource.of(data));
+    }
+
+    public default Object apply(int[] data) {
+        return apply(InputSource.of(data));
+    }
+
+    public default Object apply(Iterator<?> data) {
+        return apply(InputSource.of(data));
+    }
+
+    public default Object apply(Reader data) {
+        return apply(InputSource.of(data));
+    }
+
+    /**
+     * Matches against the bytes as if they were ISO-8859-1 (Latin-1) characters
+     */
+    public default Object apply(InputStream data) {
+        return apply(InputSource.of(data));
+    }
+
+    /**
+     * Recognizes from the start of the input
+     *
+     * @return the number of elements matched, -1 if the rule does not match
+     */
+    public default int matchLength(InputSource input) {
+        final EvalState state = new EvalState();
+        state.reset();
+        state.setInput(input);
+        return recognize(state) ? state.getPosition() : -1;
+    }
+
+    public default int matchLength(Object[] data) {
+        return matchLength(InputSource.of(data));
+    }
+
+    public default int matchLength(List<?> data) {
+        return matchLength(InputSource.of(data));
+    }
+
+    public default int matchLength(CharSequence data) {
+        return matchLength(InputSource.of(data));
+    }
+
+    public default int matchLength(char[] data) {
+        return matchLength(InputSource.of(data));
+    }
+
+    /**
+     * Recognizes the bytes as if they were ISO-8859-1 (Latin-1) characters
+     */
+    public default int matchLength(byte[] data) {
+        return matchLength(InputSource.of(data));
+    }
+
+    public default int matchLength(int[] data) {
+        return matchLength(InputSource.of(data));
+    }
+
+    /**
+     * Recognizes from the start of the input, the input does not have to be
+     * matched entirely
+     */
+    public default boolean matches(InputSource input) {
+        return matchLength(input) >= 0;
+    }
+
+    public default boolean matches(Object... data) {
+        return matches(InputSource.of(data));
+    }
+
+    public default boolean matches(List<?> data) {
+        return matches(InputSource.of(data));
+    }
+
+    public default boolean matches(CharSequence data) {
+        return matches(InputSource.of(data));
+    }
+
+    public default boolean matches(char[] data) {
+        return matches(InputSource.of(data));
+    }
+
+    /**
+     * Recognizes the bytes as if they were ISO-8859-1 (Latin-1) characters
+     */
+    public default boolean matches(byte[] data) {
+        return matches(InputSource.of(data));
+    }
+
+    public default boolean matches(int[] data) {
+        return matches(InputSource.of(data));
+    }
+
+    /**
+     * Finds the first match that starts at or after the offset
+     *
+     * @return the match, null if there is none
+     */
+    public default Match find(InputSource input, int start) {
+        return new RuleScanner(this, input).find(start);
+    }
+
+    public default Match find(CharSequence input) {
+        return find(InputSource.of(input), 0);
+    }
+
+    /**
+     * Finds every non-overlapping match that starts at or after the offset
+     */
+    public default List<Match> findAll(InputSource input, int start) {
+        return new RuleScanner(this, input).findAll(start);
+    }
+
+    public default List<Match> findAll(CharSequence input) {
+        return findAll(InputSource.of(input), 0);
+    }
+
+    /**
+     * Puts the methods of a rule together, used by the generated code
+     *
+     * @param prefix the literal prefix, see getLiteralPrefix
+     * @param rule the rule itself
+     * @param recognizer matches what rule recognizes
+     */
+    public static Rule compiled(final String prefix, final RuleMethod rule, final RuleMethod recognizer) {
+        return new Rule() {
+            @Override
+            public Object apply(Object[] data) {
+                return apply(InputSource.of(data));
+            }
+
+            @Override
+            public boolean match(EvalState state) {
+                return rule.match(state);
+            }
+
+            @Override
+            public boolean recognize(EvalState state) {
+                return recognizer.match(state);
+            }
+
+            @Override
+            public String getLiteralPrefix() {
+                return prefix;
+            }
+        };
+    }
+}
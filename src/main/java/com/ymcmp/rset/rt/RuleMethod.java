@@ -0,0 +1,18 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+/**
+ * One of the methods generated for a rule, see Rule.compiled
+ */
+@FunctionalInterface
+public interface RuleMethod {
+
+    /**
+     * @return true if the input matched at the current position of the state
+     */
+    public boolean match(EvalState state);
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+/**
+ * Retries a rule at increasing offsets of the input. If the rule is known to
+ * start with a literal and the input is made of chars, offsets where the
+ * literal does not occur are skipped using Boyer-Moore-Horspool.
+ */
+/* package */ final class RuleScanner {
+
+    private final Rule rule;
+    private final InputSource input;
+    private final EvalState state;
+
+    // null if every offset has to be tried
+    private final String prefix;
+    private final int[] shifts;
+
+    public RuleScanner(Rule rule, InputSource input) {
+        this.rule = rule;
+        this.input = input;
+        this.state = new EvalState();
+        this.state.reset();
+        this.state.setInput(input);
+
+        final String lit = rule.getLiteralPrefix();
+        if (lit.isEmpty() || input.getKind() != InputSource.Kind.CHAR) {
+            this.prefix = null;
+            this.shifts = null;
+        } else {
+            this.prefix = lit;
+            this.shifts = new int[256];
+
+            // Characters past the Latin-1 range get their shift from shiftOf
+            final int m = lit.length();
+            Arrays.fill(shifts, m);
+            for (int i = 0; i < m - 1; ++i) {
+                final char c = lit.charAt(i);
+                if (c < 256) shifts[c] = m - 1 - i;
+            }
+        }
+    }
+
+    private int shiftOf(final char c) {
+        if (c < 256) return shifts[c];
+
+        final int m = prefix.length();
+        for (int i = m - 2; i >= 0; --i) {
+            if (prefix.charAt(i) == c) return m - 1 - i;
+        }
+        return m;
+    }
+
+    private int indexOfPrefix(int from) {
+        final int m = prefix.length();
+        final char last = prefix.charAt(m - 1);
+        while (input.hasIndex(from + m - 1)) {
+            final char c = input.getChar(from + m - 1);
+            if (c == last && regionMatches(from, m - 1)) return from;
+            from += shiftOf(c);
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(final int from, final int length) {
+        for (int i = 0; i < length; ++i) {
+            if (input.getChar(from + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public Match find(final int start) {
+        for (int pos = start; ; ++pos) {
+            if (prefix != null) {
+                pos = indexOfPrefix(pos);
+                if (pos < 0) return null;
+            }
+
+            // Nothing before pos will be tried again
+            input.release(pos);
+            state.restart(pos);
+            if (rule.match(state)) {
+                return new Match(pos, state.getPosition(), state.getResult());
+            }
+
+            // An empty rule can still match at the end
+            if (!input.hasIndex(pos)) return null;
+        }
+    }
+
+    public List<Match> findAll(final int start) {
+        final List<Match> list = new ArrayList<>();
+        int pos = start;
+        Match m;
+        while ((m = find(pos)) != null) {
+            list.add(m);
+            if (m.getEnd() > m.getStart()) {
+                pos = m.getEnd();
+            } else {
+                // Step over empty matches so the same one is not found again
+                if (!input.hasIndex(m.getEnd())) break;
+                pos = m.getEnd() + 1;
+            }
+        }
+        return list;
+    }
+}
@@ -5,14 +5,110 @@
 
 package com.ymcmp.rset.rt;
 
+import java.io.Reader;
+
 import java.util.Set;
+import java.util.List;
+import java.util.ArrayList;
 import java.util.function.BiConsumer;
 
 public interface Rulesets {
 
     public Set<String> getRuleNames();
 
+    /**
+     * @return the names of the rules in the order they were declared
+     */
+    public default List<String> getDeclaredRuleNames() {
+        return new ArrayList<>(getRuleNames());
+    }
+
     public Rule getRule(String name);
 
     public void forEachRule(BiConsumer<? super String, ? super Rule> consumer);
-}
\ No newline at end of file
+
+    /**
+     * Recognizes from the start of the input, see Rule.recognize
+     */
+    public default boolean matches(String name, InputSource input) {
+        return matchLength(name, input) >= 0;
+    }
+
+    public default boolean matches(String name, Object... data) {
+        return matches(name, InputSource.of(data));
+    }
+
+    public default boolean matches(String name, List<?> data) {
+        return matches(name, InputSource.of(data));
+    }
+
+    public default boolean matches(String name, CharSequence data) {
+        return matches(name, InputSource.of(data));
+    }
+
+    public default boolean matches(String name, char[] data) {
+        return matches(name, InputSource.of(data));
+    }
+
+    /**
+     * Recognizes the bytes as if they were ISO-8859-1 (Latin-1) characters
+     */
+    public default boolean matches(String name, byte[] data) {
+        return matches(name, InputSource.of(data));
+    }
+
+    public default boolean matches(String name, int[] data) {
+        return matches(name, InputSource.of(data));
+    }
+
+    /**
+     * @return the number of elements matched, -1 if the rule does not match
+     */
+    public default int matchLength(String name, InputSource input) {
+        final Rule rule = getRule(name);
+        if (rule == null) throw new RuntimeException("Attempt to match with undeclared rule " + name);
+        return rule.matchLength(input);
+    }
+
+    public default int matchLength(String name, Object[] data) {
+        return matchLength(name, InputSource.of(data));
+    }
+
+    public default int matchLength(String name, List<?> data) {
+        return matchLength(name, InputSource.of(data));
+    }
+
+    public default int matchLength(String name, CharSequence data) {
+        return matchLength(name, InputSource.of(data));
+    }
+
+    public default int matchLength(String name, char[] data) {
+        return matchLength(name, InputSource.of(data));
+    }
+
+    /**
+     * Recognizes the bytes as if they were ISO-8859-1 (Latin-1) characters
+     */
+    public default int matchLength(String name, byte[] data) {
+        return matchLength(name, InputSource.of(data));
+    }
+
+    public default int matchLength(String name, int[] data) {
+        return matchLength(name, InputSource.of(data));
+    }
+
+    /**
+     * Uses every rule as a token, see Tokenizer
+     */
+    public default Tokenizer tokenize(InputSource input) {
+        return new Tokenizer(this, input);
+    }
+
+    public default Tokenizer tokenize(CharSequence input) {
+        return tokenize(InputSource.of(input));
+    }
+
+    public default Tokenizer tokenize(Reader input) {
+        return tokenize(InputSource.of(input));
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.rt;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.NoSuchElementException;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits the input into tokens using a group of rules as a lexer. At each
+ * position every rule is tried, the longest match wins and ties go to the
+ * rule declared first. Tokens are only matched when they are requested.
+ *
+ * Rules are tried directly against the input with one evaluation state, so
+ * nothing is copied, and memoized subrules are shared by every rule tried
+ * at the same position. Rules that start with a literal are only tried if
+ * the literal occurs at the position; rules sharing a literal check it once.
+ */
+public final class Tokenizer implements Iterator<Match> {
+
+    private final String[] names;
+    private final Rule[] rules;
+
+    // prefixOf[i] indexes prefixes, -1 if rules[i] does not have one
+    private final int[] prefixOf;
+    private final String[] prefixes;
+
+    // Which prefixes are known to occur at the current position
+    private final byte[] prefixState;
+
+    private final InputSource input;
+    private final EvalState state;
+
+    private int position;
+
+    public Tokenizer(Rulesets rulesets, InputSource input) {
+        this(rulesets, rulesets.getDeclaredRuleNames(), input);
+    }
+
+    /**
+     * @param names the rules to tokenize with, the first one wins ties
+     */
+    public Tokenizer(Rulesets rulesets, Iterable<String> names, InputSource input) {
+        final List<String> list = new ArrayList<>();
+        names.forEach(list::add);
+
+        this.names = list.toArray(new String[list.size()]);
+        this.rules = new Rule[this.names.length];
+        this.prefixOf = new int[this.names.length];
+
+        final boolean chars = input.getKind() == InputSource.Kind.CHAR;
+        final Map<String, Integer> distinct = new HashMap<>();
+        for (int i = 0; i < this.names.length; ++i) {
+            final Rule rule = rulesets.getRule(this.names[i]);
+            if (rule == null) throw new RuntimeException("Attempt to tokenize with undeclared rule " + this.names[i]);
+            rules[i] = rule;
+
+            final String prefix = rule.getLiteralPrefix();
+            prefixOf[i] = chars && !prefix.isEmpty()
+                    ? distinct.computeIfAbsent(prefix, k -> distinct.size())
+                    : -1;
+        }
+
+        this.prefixes = new String[distinct.size()];
+        distinct.forEach((k, v) -> prefixes[v] = k);
+        this.prefixState = new byte[prefixes.length];
+
+        this.input = input;
+        this.state = new EvalState();
+        this.state.reset();
+        this.state.setInput(input);
+    }
+
+    /**
+     * @return the position the next token will be matched at
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return input.hasIndex(position);
+    }
+
+    /**
+     * @throws NoSuchElementException if the end of the input is reached
+     * @throws RuntimeException if none of the rules match a non-empty token
+     */
+    @Override
+    public Match next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        // Nothing before the current token will be looked at again
+        input.release(position);
+        Arrays.fill(prefixState, (byte) 0);
+
+        int best = -1;
+        int bestEnd = position;
+        Object bestValue = null;
+        for (int i = 0; i < rules.length; ++i) {
+            if (prefixOf[i] >= 0 && !prefixOccurs(prefixOf[i])) continue;
+
+            state.restart(position);
+            if (rules[i].match(state) && state.getPosition() > bestEnd) {
+                best = i;
+                bestEnd = state.getPosition();
+                bestValue = state.getResult();
+            }
+        }
+
+        if (best < 0) throw new RuntimeException("No rule matches at position " + position);
+
+        final Match token = new Match(names[best], position, bestEnd, bestValue);
+        position = bestEnd;
+        return token;
+    }
+
+    private boolean prefixOccurs(final int index) {
+        // 0 is unknown, 1 is occurs, 2 is does not occur
+        if (prefixState[index] == 0) {
+            final String prefix = prefixes[index];
+            boolean occurs = true;
+            for (int i = 0; i < prefix.length(); ++i) {
+                if (!input.hasIndex(position + i) || input.getChar(position + i) != prefix.charAt(i)) {
+                    occurs = false;
+                    break;
+                }
+            }
+            prefixState[index] = (byte) (occurs ? 1 : 2);
+        }
+        return prefixState[index] == 1;
+    }
+
+    public Stream<Match> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
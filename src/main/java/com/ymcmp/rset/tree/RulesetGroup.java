@@ -6,7 +6,12 @@
 package com.ymcmp.rset.tree;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Stack;
 
 import java.util.stream.Stream;
@@ -14,11 +19,14 @@ import java.util.stream.Collectors;
 
 import java.util.function.Consumer;
 
+import java.lang.reflect.Method;
+
 import org.objectweb.asm.Type;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 
 import com.ymcmp.rset.ASMUtils;
+import com.ymcmp.rset.StaticConstants;
 import com.ymcmp.rset.ClassWriterUtils;
 
 import com.ymcmp.rset.Scope.VarType;
@@ -64,8 +72,13 @@ public final class RulesetGroup extends ParseTree {
         final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         final ClassWriterUtils cwa = new ClassWriterUtils(cw);
 
-        final BytecodeActionVisitor aw = new BytecodeActionVisitor(cw, className);
-        final BytecodeRuleVisitor rw = new BytecodeRuleVisitor(cw, className, genDebugInfo, generateRefsMap(className));
+        allocateCaptureSlots();
+
+        final StaticConstants consts = new StaticConstants(className);
+        final BytecodeActionVisitor aw = new BytecodeActionVisitor(cw, className, collectShadowedNames(), consts);
+        final Set<String> negatedTests = new LinkedHashSet<>();
+        final Set<String> negatedRecogs = new LinkedHashSet<>();
+        final BytecodeRuleVisitor rw = new BytecodeRuleVisitor(cw, className, genDebugInfo, generateRefsMap(className, negatedTests, negatedRecogs), collectDefinitions(), consts);
 
         // Generating code for Java 8
         cw.visitSource(sourceFile, null);
@@ -74,19 +87,7 @@ public final class RulesetGroup extends ParseTree {
         });
 
         cwa.defineField(ACC_PRIVATE | ACC_FINAL, "rules", "Ljava/util/Map;", "Ljava/util/Map<Ljava/lang/String;Lcom/ymcmp/rset/rt/Rule;>;");
-        cwa.defineField(ACC_PUBLIC, "state", "Lcom/ymcmp/rset/rt/EvalState;", null);
-        cwa.defineField(ACC_PUBLIC, "ext", "Lcom/ymcmp/rset/lib/Extensions;", null);
-
-        if (genDebugInfo) {
-            // Construct logger object
-            cwa.defineField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "LOGGER", "Ljava/util/logging/Logger;", null);
-            cwa.defineStaticCtor(mv -> {
-                mv.visitLdcInsn(Type.getType("L" + className + ";"));
-                mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getName", "()Ljava/lang/String;", false);
-                mv.visitMethodInsn(INVOKESTATIC, "java/util/logging/Logger", "getLogger", "(Ljava/lang/String;)Ljava/util/logging/Logger;", false);
-                mv.visitFieldInsn(PUTSTATIC, className, "LOGGER", "Ljava/util/logging/Logger;");
-            });
-        }
+        cwa.defineField(ACC_PUBLIC | ACC_FINAL, "ext", "Lcom/ymcmp/rset/lib/Extensions;", null);
 
         // Dependency generating constructor, (when user does not have custom Extension to bundle)
         cwa.defineCtor(ACC_PUBLIC, "()V", ctor -> {
@@ -96,63 +97,396 @@ public final class RulesetGroup extends ParseTree {
             ctor.visitMethodInsn(INVOKESPECIAL, className, "<init>", "(Lcom/ymcmp/rset/lib/Extensions;)V", false);
         });
 
-        // The delegating constructor (the one doing all the work!)
-        cwa.defineCtor(ACC_PUBLIC, "(Lcom/ymcmp/rset/lib/Extensions;)V", ctor -> implDelegatingCtor(ctor, className, rsets));
-
         for (final RulesetNode r : rsets) {
             r.makeTestName().ifPresent(k -> rw.visit(r));
+            r.makeRecogName().ifPresent(k -> rw.visitRecognizer(r));
             r.makeActnName().ifPresent(k -> aw.visit(r));
             r.makeRuleName().ifPresent(k -> generateRuleMethod(cw, className, r));
         }
 
+        // Rules referenced under ~ get a negated test method (or recognizer),
+        // which can reference even more rules under negation
+        final Set<String> doneTests = new HashSet<>();
+        final Set<String> doneRecogs = new HashSet<>();
+        boolean pending = true;
+        while (pending) {
+            pending = false;
+            for (final RulesetNode r : rsets) {
+                final String name = r.name.getText();
+                if (negatedTests.contains(name) && doneTests.add(name)) {
+                    rw.visitNegatedRulesetNode(r);
+                    pending = true;
+                }
+                if (negatedRecogs.contains(name) && doneRecogs.add(name)) {
+                    rw.visitNegatedRecognizer(r);
+                    pending = true;
+                }
+            }
+        }
+
+        // Literals and sets used by the rules and actions
+        consts.defineFields(cwa);
+
+        if (genDebugInfo) {
+            // Construct logger object
+            cwa.defineField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "LOGGER", "Ljava/util/logging/Logger;", null);
+        }
+
+        if (genDebugInfo || !consts.isEmpty()) {
+            cwa.defineStaticCtor(mv -> {
+                if (genDebugInfo) {
+                    mv.visitLdcInsn(Type.getType("L" + className + ";"));
+                    mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getName", "()Ljava/lang/String;", false);
+                    mv.visitMethodInsn(INVOKESTATIC, "java/util/logging/Logger", "getLogger", "(Ljava/lang/String;)Ljava/util/logging/Logger;", false);
+                    mv.visitFieldInsn(PUTSTATIC, className, "LOGGER", "Ljava/util/logging/Logger;");
+                }
+                consts.initializeFields(mv);
+            });
+        }
+
+        // Guards for the exports that actions call directly
+        final Map<String, Method> linked = aw.getLinkedExports();
+        for (final String name : linked.keySet()) {
+            cwa.defineField(ACC_PRIVATE, BytecodeActionVisitor.linkFieldName(name), "Z", null);
+        }
+        if (!linked.isEmpty()) {
+            cwa.defineField(ACC_PRIVATE | ACC_VOLATILE, BytecodeActionVisitor.LINK_VERSION_FIELD, "I", null);
+            implRelink(cw, className, linked);
+        }
+
+        // The delegating constructor (the one doing all the work!)
+        final Map<String, String> prefixes = collectLiteralPrefixes();
+        cwa.defineCtor(ACC_PUBLIC, "(Lcom/ymcmp/rset/lib/Extensions;)V", ctor -> implDelegatingCtor(ctor, className, rsets, linked, prefixes));
+
         // Implement the Rulesets interface
         implGetRule(cw, className);
         implGetRuleNames(cw, className);
+        implGetDeclaredRuleNames(cw, rsets);
         implForEachRule(cw, className);
 
         cw.visitEnd();
         return cw.toByteArray();
     }
 
-    private Map<String, Consumer<BytecodeRuleVisitor>> generateRefsMap(final String className) {
+    /**
+     * Turns on packrat memoization for every rule and subrule in the group.
+     * Individual rulesets can also opt in with the memo modifier.
+     */
+    public void enableMemoization() {
+        for (final RulesetNode r : rsets) {
+            if (r.type != RulesetNode.Type.FRAGMENT) r.memoize = true;
+        }
+    }
+
+    /**
+     * Collects the names an action environment could bind besides the
+     * exports: captures, loop variables and assignment targets.
+     *
+     * @return the names or null if some assignment target is not a constant
+     */
+    private Set<String> collectShadowedNames() {
+        final Set<String> names = new HashSet<>();
+        names.add("_it");
+        for (final RulesetNode r : rsets) {
+            if (!collectShadowedNames(r.rule, names) || !collectShadowedNames(r.expr, names)) {
+                return null;
+            }
+        }
+        return names;
+    }
+
+    private static boolean collectShadowedNames(final ParseTree tree, final Set<String> names) {
+        if (tree == null) return true;
+
+        if (tree instanceof CaptureRule) {
+            names.add(((CaptureRule) tree).dest.getText());
+        } else if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.ASSIGN) {
+            final List<ParseTree> rules = ((KaryRule) tree).rules;
+            for (int i = 0; i < rules.size() - 1; ++i) {
+                final ParseTree dest = rules.get(i);
+                if (!(dest instanceof ValueNode)) return false;
+
+                final Object key = ((ValueNode) dest).toObject();
+                if (key instanceof String) names.add((String) key);
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            if (!collectShadowedNames(tree.getChild(i), names)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives every capture of a rule or subrule a slot. Fragments are inlined,
+     * so their captures belong to the rules referencing them.
+     */
+    private void allocateCaptureSlots() {
+        final Map<String, RulesetNode> defs = collectDefinitions();
+        for (final RulesetNode r : rsets) {
+            if (r.type == RulesetNode.Type.FRAGMENT) continue;
+
+            final Set<String> names = new LinkedHashSet<>();
+            collectCaptureNames(r.rule, defs, new HashSet<>(), names);
+            r.captures = new ArrayList<>(names);
+        }
+    }
+
+    private static void collectCaptureNames(final ParseTree tree, final Map<String, RulesetNode> defs, final Set<String> visiting, final Set<String> names) {
+        if (tree == null) return;
+
+        if (tree instanceof CaptureRule) {
+            names.add(((CaptureRule) tree).dest.getText());
+        } else if (tree instanceof RefRule) {
+            // Substitutions are children of the reference, so only the fragment is left
+            final String name = ((RefRule) tree).node.getText();
+            final RulesetNode def = defs.get(name);
+            if (def != null && def.type == RulesetNode.Type.FRAGMENT && visiting.add(name)) {
+                collectCaptureNames(def.rule, defs, visiting, names);
+                visiting.remove(name);
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            collectCaptureNames(tree.getChild(i), defs, visiting, names);
+        }
+    }
+
+    private static final class LiteralPrefix {
+
+        public static final LiteralPrefix NONE = new LiteralPrefix("", false);
+
+        public final String text;
+
+        // true if nothing can follow the text
+        public final boolean complete;
+
+        public LiteralPrefix(String text, boolean complete) {
+            this.text = text;
+            this.complete = complete;
+        }
+    }
+
+    private Map<String, RulesetNode> collectDefinitions() {
+        return rsets.stream().collect(Collectors.toMap(e -> e.name.getText(), e -> e));
+    }
+
+    /**
+     * Finds the literal every match of a rule has to start with. Rule.find
+     * uses it to skip over the parts of the input where it does not occur.
+     *
+     * @return rule name to prefix, rules without a prefix are left out
+     */
+    private Map<String, String> collectLiteralPrefixes() {
+        final Map<String, RulesetNode> defs = collectDefinitions();
+        final Map<String, String> prefixes = new HashMap<>();
+        for (final RulesetNode r : rsets) {
+            if (r.type != RulesetNode.Type.RULE) continue;
+
+            final String text = literalPrefix(r.rule, defs, new HashSet<>()).text;
+            if (!text.isEmpty()) prefixes.put(r.name.getText(), text);
+        }
+        return prefixes;
+    }
+
+    private static LiteralPrefix literalPrefix(final ParseTree tree, final Map<String, RulesetNode> defs, final Set<String> visiting) {
+        if (tree instanceof ValueNode) {
+            final ValueNode node = (ValueNode) tree;
+            if (node.token.type != com.ymcmp.rset.Type.L_CHARS) return LiteralPrefix.NONE;
+            return new LiteralPrefix(node.toObject().toString(), true);
+        }
+        if (tree instanceof CaptureRule) {
+            return literalPrefix(((CaptureRule) tree).rule, defs, visiting);
+        }
+        if (tree instanceof UnaryRule) {
+            final UnaryRule rule = (UnaryRule) tree;
+            if (rule.op.type != com.ymcmp.rset.Type.S_AD) return LiteralPrefix.NONE;
+
+            // a+ starts with at least one a
+            return new LiteralPrefix(literalPrefix(rule.rule, defs, visiting).text, false);
+        }
+        if (tree instanceof RefRule) {
+            final String name = ((RefRule) tree).node.getText();
+            final RulesetNode def = defs.get(name);
+            // Substitution variables depend on the call site
+            if (def == null || !visiting.add(name)) return LiteralPrefix.NONE;
+
+            final LiteralPrefix prefix = literalPrefix(def.rule, defs, visiting);
+            visiting.remove(name);
+            return prefix;
+        }
+        if (tree instanceof KaryRule) {
+            final KaryRule rule = (KaryRule) tree;
+            switch (rule.type) {
+                case SEQ:
+                case GROUP: {
+                    final StringBuilder sb = new StringBuilder();
+                    for (final ParseTree child : rule.rules) {
+                        final LiteralPrefix prefix = literalPrefix(child, defs, visiting);
+                        sb.append(prefix.text);
+                        if (!prefix.complete) return new LiteralPrefix(sb.toString(), false);
+                    }
+                    return new LiteralPrefix(sb.toString(), true);
+                }
+                case SWITCH: {
+                    // Every alternative shares the common prefix
+                    LiteralPrefix common = null;
+                    for (final ParseTree child : rule.rules) {
+                        final LiteralPrefix prefix = literalPrefix(child, defs, visiting);
+                        if (common == null) {
+                            common = prefix;
+                        } else if (!common.complete || !prefix.complete || !common.text.equals(prefix.text)) {
+                            int i = 0;
+                            final int limit = Math.min(common.text.length(), prefix.text.length());
+                            while (i < limit && common.text.charAt(i) == prefix.text.charAt(i)) ++i;
+                            common = new LiteralPrefix(common.text.substring(0, i), false);
+                        }
+                    }
+                    return common == null ? LiteralPrefix.NONE : common;
+                }
+                default:
+                    break;
+            }
+        }
+        return LiteralPrefix.NONE;
+    }
+
+    private Map<String, Integer> allocateMemoSlots() {
+        final Map<String, Integer> slots = new HashMap<>();
+        for (final RulesetNode r : rsets) {
+            if (r.memoize) slots.put(r.name.getText(), slots.size());
+        }
+        return slots;
+    }
+
+    private static void callSubruleRoutine(final BytecodeRuleVisitor vis, final String className, final RulesetNode e, final int value) {
+        final String name = e.name.getText();
+        final int state = vis.scope.findNearestLocal(VarType.EVAL_STATE);
+        final int localCaps = vis.scope.pushNewLocal(VarType.CAPTURES);
+        final int parseLst = vis.scope.pushNewLocal(VarType.LIST);
+        pushNewCaptures(vis.mv, e);
+        vis.mv.visitVarInsn(ASTORE, localCaps);
+        vis.newObjectNoArgs(parseLst, "java/util/ArrayList");
+        vis.mv.visitVarInsn(ALOAD, 0);
+        vis.mv.visitVarInsn(ALOAD, state);
+        vis.mv.visitVarInsn(ALOAD, localCaps);
+        vis.mv.visitVarInsn(ALOAD, parseLst);
+        final String testName = vis.isNegated() ? e.makeNegatedTestName().get() : e.makeTestName().get();
+        vis.mv.visitMethodInsn(INVOKEVIRTUAL, className, testName, TEST_DESC, false);
+        vis.mv.visitInsn(DUP);
+        vis.mv.visitVarInsn(ISTORE, vis.RESULT);
+        vis.mv.visitInsn(ACONST_NULL);
+        vis.mv.visitVarInsn(ASTORE, value);
+        vis.testIf(IFEQ, () -> {
+            vis.mv.visitVarInsn(ALOAD, 0);
+            vis.selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
+            vis.mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "export", "()Ljava/util/Map;", false);
+            vis.mv.visitVarInsn(ALOAD, localCaps);
+
+            vis.logMessage("FINER", "Executing action of " + name);
+
+            vis.mv.visitMethodInsn(INVOKEVIRTUAL, className, e.makeActnName().get(), ACTN_DESC, false);
+            vis.mv.visitInsn(DUP);
+            vis.testIf(IFNONNULL, () -> {
+                vis.logMessage("FINER", "Using parse stack as result of action");
+                vis.mv.visitInsn(POP);
+                vis.mv.visitVarInsn(ALOAD, parseLst);
+            });
+            vis.mv.visitVarInsn(ASTORE, value);
+        });
+        vis.scope.popLocal();
+        vis.scope.popLocal();
+    }
+
+    private static void callRecognizerRoutine(final BytecodeRuleVisitor vis, final String className, final RulesetNode e, final int value) {
+        // result = recog(state), there is no value
+        final int state = vis.scope.findNearestLocal(VarType.EVAL_STATE);
+        vis.mv.visitVarInsn(ALOAD, 0);
+        vis.mv.visitVarInsn(ALOAD, state);
+        final String recogName = vis.isNegated() ? e.makeNegatedRecogName().get() : e.makeRecogName().get();
+        vis.mv.visitMethodInsn(INVOKEVIRTUAL, className, recogName, "(Lcom/ymcmp/rset/rt/EvalState;)Z", false);
+        vis.mv.visitVarInsn(ISTORE, vis.RESULT);
+        vis.mv.visitInsn(ACONST_NULL);
+        vis.mv.visitVarInsn(ASTORE, value);
+    }
+
+    private static void memoizedSubruleRoutine(final BytecodeRuleVisitor vis, final String className, final RulesetNode e, final int slot, final int value) {
+        // A rule matched under negation is a different rule as far as the table is concerned
+        final int key = slot << 1 | (vis.isNegated() ? 1 : 0);
+        final int state = vis.scope.findNearestLocal(VarType.EVAL_STATE);
+        final int start = vis.scope.pushNewLocal(VarType.NUM);
+        vis.mv.visitVarInsn(ALOAD, state);
+        vis.mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "getPosition", "()I", false);
+        vis.mv.visitVarInsn(ISTORE, start);
+        vis.mv.visitVarInsn(ALOAD, state);
+        vis.mv.visitLdcInsn(key);
+        vis.mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "recall", "(I)Ljava/lang/Object;", false);
+        vis.mv.visitInsn(DUP);
+        vis.mv.visitVarInsn(ASTORE, value);
+        vis.mv.visitFieldInsn(GETSTATIC, "com/ymcmp/rset/rt/MemoTable", "MISS", "Ljava/lang/Object;");
+        vis.testIfElse(IF_ACMPNE, () -> {
+            vis.logMessage("FINER", "No memoized result for " + e.name.getText());
+
+            if (vis.isRecognizer()) {
+                callRecognizerRoutine(vis, className, e, value);
+            } else {
+                callSubruleRoutine(vis, className, e, value);
+            }
+            // state.memorize(key, start, result, value)
+            vis.mv.visitVarInsn(ALOAD, state);
+            vis.mv.visitLdcInsn(key);
+            vis.mv.visitVarInsn(ILOAD, start);
+            vis.mv.visitVarInsn(ILOAD, vis.RESULT);
+            vis.mv.visitVarInsn(ALOAD, value);
+            vis.mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "memorize", "(IIZLjava/lang/Object;)V", false);
+        }, () -> {
+            vis.logMessage("FINER", "Using memoized result for " + e.name.getText());
+
+            // result = value != MemoTable.FAIL
+            vis.mv.visitVarInsn(ALOAD, value);
+            vis.mv.visitFieldInsn(GETSTATIC, "com/ymcmp/rset/rt/MemoTable", "FAIL", "Ljava/lang/Object;");
+            vis.testIfElse(IF_ACMPEQ, () -> vis.mv.visitInsn(ICONST_1), () -> vis.mv.visitInsn(ICONST_0));
+            vis.mv.visitVarInsn(ISTORE, vis.RESULT);
+        });
+        vis.scope.popLocal();
+    }
+
+    /**
+     * @param negatedTests   Collects the rules referenced under negation
+     * @param negatedRecogs  Same as negatedTests, but for recognizers
+     */
+    private Map<String, Consumer<BytecodeRuleVisitor>> generateRefsMap(final String className, final Set<String> negatedTests, final Set<String> negatedRecogs) {
         final Stack<String> fragmentStack = new Stack<>();
+        final Map<String, Integer> memoSlots = allocateMemoSlots();
         return rsets.stream().collect(Collectors.toMap(e -> e.name.getText(), e -> {
             switch (e.type) {
                 case RULE:
                 case SUBRULE:
                     return vis -> {
-                        final String name = e.name.getText();
+                        final Integer slot = memoSlots.get(e.name.getText());
+                        if (vis.isNegated()) {
+                            (vis.isRecognizer() ? negatedRecogs : negatedTests).add(e.name.getText());
+                        }
                         final int lst = vis.scope.findNearestLocal(VarType.LIST);
-                        final int localEnv = vis.scope.pushNewLocal(VarType.MAP);
-                        final int parseLst = vis.scope.pushNewLocal(VarType.LIST);
-                        vis.selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
-                        vis.mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "export", "()Ljava/util/Map;", false);
-                        vis.mv.visitVarInsn(ASTORE, localEnv);
-                        vis.newObjectNoArgs(parseLst, "java/util/ArrayList");
-                        vis.mv.visitVarInsn(ALOAD, 0);
-                        vis.mv.visitVarInsn(ALOAD, localEnv);
-                        vis.mv.visitVarInsn(ALOAD, parseLst);
-                        vis.mv.visitMethodInsn(INVOKEVIRTUAL, className, e.makeTestName().get(), "(Ljava/util/Map;Ljava/util/List;)Z", false);
-                        vis.mv.visitInsn(DUP);
-                        vis.testIf(IFEQ, () -> {
-                            vis.mv.visitVarInsn(ALOAD, lst);
-                            vis.mv.visitVarInsn(ALOAD, 0);
-                            vis.mv.visitVarInsn(ALOAD, localEnv);
-
-                            vis.logMessage("FINER", "Executing action of " + name);
-
-                            vis.mv.visitMethodInsn(INVOKEVIRTUAL, className, e.makeActnName().get(), "(Ljava/util/Map;)Ljava/lang/Object;", false);
-                            vis.mv.visitInsn(DUP);
-                            vis.testIf(IFNONNULL, () -> {
-                                vis.logMessage("FINER", "Using parse stack as result of action");
+                        final int value = vis.scope.pushNewLocal(VarType.OBJECT);
+                        if (slot != null) {
+                            // Recognizers do not produce values, so they get slots of their own
+                            final int actual = vis.isRecognizer() ? memoSlots.size() + slot : slot;
+                            memoizedSubruleRoutine(vis, className, e, actual, value);
+                        } else if (vis.isRecognizer()) {
+                            callRecognizerRoutine(vis, className, e, value);
+                        } else {
+                            callSubruleRoutine(vis, className, e, value);
+                        }
+                        if (!vis.isRecognizer()) {
+                            // if (result) lst.add(value)
+                            vis.ifBoolTrue(vis.RESULT, () -> {
+                                vis.mv.visitVarInsn(ALOAD, lst);
+                                vis.mv.visitVarInsn(ALOAD, value);
+                                vis.mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
                                 vis.mv.visitInsn(POP);
-                                vis.mv.visitVarInsn(ALOAD, parseLst);
                             });
-                            vis.mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
-                            vis.mv.visitInsn(POP);
-                        });
-                        vis.mv.visitVarInsn(ISTORE, vis.RESULT);
-                        vis.scope.popLocal();
+                        }
                         vis.scope.popLocal();
                     };
                 case FRAGMENT:
@@ -5,10 +5,15 @@
 
 package com.ymcmp.rset.tree;
 
+import java.util.Map;
 import java.util.Optional;
 
+import java.lang.reflect.Method;
+
 import com.ymcmp.rset.ASMUtils;
 
+import com.ymcmp.rset.visitor.BytecodeActionVisitor;
+
 import org.objectweb.asm.Type;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.ClassWriter;
@@ -43,6 +48,30 @@ import static org.objectweb.asm.Opcodes.*;
         mv.visitEnd();
     }
 
+    public static void implGetDeclaredRuleNames(ClassWriter cw, Iterable<RulesetNode> rsets) {
+        final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "getDeclaredRuleNames", "()Ljava/util/List;", "()Ljava/util/List<Ljava/lang/String;>;", null);
+        // return Arrays.asList(new String[] { %rule names... });
+        int count = 0;
+        for (final RulesetNode r : rsets) {
+            if (r.makeRuleName().isPresent()) ++count;
+        }
+        mv.visitLdcInsn(count);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        int i = 0;
+        for (final RulesetNode r : rsets) {
+            if (!r.makeRuleName().isPresent()) continue;
+
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(i++);
+            mv.visitLdcInsn(r.name.getText());
+            mv.visitInsn(AASTORE);
+        }
+        mv.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "asList", "([Ljava/lang/Object;)Ljava/util/List;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
     public static void implForEachRule(ClassWriter cw, String className) {
         final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "forEachRule", "(Ljava/util/function/BiConsumer;)V", "(Ljava/util/function/BiConsumer<-Ljava/lang/String;-Lcom/ymcmp/rset/rt/Rule;>;)V", null);
         mv.visitVarInsn(ALOAD, 0);
@@ -54,34 +83,50 @@ import static org.objectweb.asm.Opcodes.*;
         mv.visitEnd();
     }
 
+    // test(state, caps, lst) and act(env, caps)
+    public static final String TEST_DESC = "(Lcom/ymcmp/rset/rt/EvalState;[Ljava/lang/Object;Ljava/util/List;)Z";
+    public static final String ACTN_DESC = "(Ljava/util/Map;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /**
+     * Pushes a fresh capture array for the rule, null if it has no captures
+     */
+    public static void pushNewCaptures(final MethodVisitor mv, final RulesetNode r) {
+        if (r.captures.isEmpty()) {
+            mv.visitInsn(ACONST_NULL);
+        } else {
+            mv.visitLdcInsn(r.captures.size());
+            mv.visitMethodInsn(INVOKESTATIC, "com/ymcmp/rset/rt/Captures", "create", "(I)[Ljava/lang/Object;", false);
+        }
+    }
+
     public static void generateRuleMethod(ClassWriter cw, final String className, final RulesetNode r) {
         final String ruleName = r.makeRuleName().get();
         final String testName = r.makeTestName().get();
         final String actnName = r.makeActnName().get();
 
-        final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_VARARGS, ruleName, "([Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+        final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, ruleName, "(Lcom/ymcmp/rset/rt/EvalState;)Z", null, null);
         final ASMUtils mva = ASMUtils.wrapperFor(mv);
-        // state.reset(); state.setData(data@1);
-        mva.selfGetField(className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "reset", "()V", false);
-        mva.selfGetField(className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-        mv.visitVarInsn(ALOAD, 1);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "setData", "([Ljava/lang/Object;)V", false);
-        // env@2 = ext.export();
-        mva.selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "export", "()Ljava/util/Map;", false);
+        // (state is supplied by the caller, so one instance can be shared between threads)
+        // caps@2 = Captures.create(%n);
+        pushNewCaptures(mv, r);
         mv.visitVarInsn(ASTORE, 2);
-        // return (%test(env@2, new ArrayList<>())) ? act(env@2) : null;
+        // if (%test(state@1, caps@2, new ArrayList<>())) { state@1.setResult(act(ext.export(), caps@2)); return true; } return false;
         mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
         mv.visitVarInsn(ALOAD, 2);
         mva.newObjectNoArgs(-1, "java/util/ArrayList");
-        mv.visitMethodInsn(INVOKEVIRTUAL, className, testName, "(Ljava/util/Map;Ljava/util/List;)Z", false);
+        mv.visitMethodInsn(INVOKEVIRTUAL, className, testName, TEST_DESC, false);
         mva.testIfElse(IFEQ, () -> {
+            mv.visitVarInsn(ALOAD, 1);
             mv.visitVarInsn(ALOAD, 0);
+            mva.selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "export", "()Ljava/util/Map;", false);
             mv.visitVarInsn(ALOAD, 2);
-            mv.visitMethodInsn(INVOKEVIRTUAL, className, actnName, "(Ljava/util/Map;)Ljava/lang/Object;", false);
-        }, () -> mv.visitInsn(ACONST_NULL));
-        mv.visitInsn(ARETURN);
+            mv.visitMethodInsn(INVOKEVIRTUAL, className, actnName, ACTN_DESC, false);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "setResult", "(Ljava/lang/Object;)V", false);
+            mv.visitInsn(ICONST_1);
+        }, () -> mv.visitInsn(ICONST_0));
+        mv.visitInsn(IRETURN);
         mv.visitMaxs(0, 0);
         mv.visitEnd();
     }
@@ -91,9 +136,6 @@ import static org.objectweb.asm.Opcodes.*;
         // super();
         ctor.visitVarInsn(ALOAD, 0);
         ctor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-        // state = new EvalState();
-        ctora.newObjectNoArgs(-1, "com/ymcmp/rset/rt/EvalState");
-        ctora.selfPutField(className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
         // ext = %injected through constructor;
         ctor.visitVarInsn(ALOAD, 1);
         ctora.selfPutField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
@@ -102,22 +144,66 @@ import static org.objectweb.asm.Opcodes.*;
         ctora.selfPutField(className, "rules", "Ljava/util/Map;");
     }
 
-    public static void implDelegatingCtor(final MethodVisitor ctor, final String className, Iterable<RulesetNode> rsets) {
+    private static void pushRuleLambda(final MethodVisitor mv, final String className, final String methodName) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInvokeDynamicInsn("match", "(L" + className + ";)Lcom/ymcmp/rset/rt/RuleMethod;",
+                new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false),
+                new Object[]{Type.getType("(Lcom/ymcmp/rset/rt/EvalState;)Z"),
+                        new Handle(H_INVOKEVIRTUAL, className, methodName, "(Lcom/ymcmp/rset/rt/EvalState;)Z", false),
+                        Type.getType("(Lcom/ymcmp/rset/rt/EvalState;)Z")
+                });
+    }
+
+    /**
+     * Recomputes the guards of the linked exports, the version is stored last
+     * so a thread that reads it also sees the guards that go with it
+     */
+    public static void implRelink(final ClassWriter cw, final String className, final Map<String, Method> linked) {
+        final MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, BytecodeActionVisitor.RELINK_METHOD, "()V", null, null);
+        final ASMUtils mva = ASMUtils.wrapperFor(mv);
+        mv.visitCode();
+        // version@1 = ext.getVersion();
+        mva.selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
+        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "getVersion", "()I", false);
+        mv.visitVarInsn(ISTORE, 1);
+        for (final Map.Entry<String, Method> entry : linked.entrySet()) {
+            // link$name = ext.isBuiltin(name, %declaring class);
+            mv.visitVarInsn(ALOAD, 0);
+            mva.selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
+            mv.visitLdcInsn(entry.getKey());
+            mv.visitLdcInsn(Type.getType(entry.getValue().getDeclaringClass()));
+            mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "isBuiltin", "(Ljava/lang/String;Ljava/lang/Class;)Z", false);
+            mv.visitFieldInsn(PUTFIELD, className, BytecodeActionVisitor.linkFieldName(entry.getKey()), "Z");
+        }
+        // linkVersion = version@1;
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, className, BytecodeActionVisitor.LINK_VERSION_FIELD, "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    public static void implDelegatingCtor(final MethodVisitor ctor, final String className, Iterable<RulesetNode> rsets, Map<String, Method> linked, Map<String, String> prefixes) {
         initializeFields(ctor, className);
 
+        if (!linked.isEmpty()) {
+            // relink();
+            ctor.visitVarInsn(ALOAD, 0);
+            ctor.visitMethodInsn(INVOKESPECIAL, className, BytecodeActionVisitor.RELINK_METHOD, "()V", false);
+        }
+
         for (final RulesetNode r : rsets) {
             r.makeRuleName().ifPresent(ruleName -> {
                 // Map method to rule table
                 ctor.visitVarInsn(ALOAD, 0);
                 ctor.visitFieldInsn(GETFIELD, className, "rules", "Ljava/util/Map;");
                 ctor.visitLdcInsn(r.name.getText());
-                ctor.visitVarInsn(ALOAD, 0);
-                ctor.visitInvokeDynamicInsn("apply", "(L" + className + ";)Lcom/ymcmp/rset/rt/Rule;",
-                        new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false),
-                        new Object[]{Type.getType("(Ljava/lang/Object;)Ljava/lang/Object;"),
-                                new Handle(H_INVOKEVIRTUAL, className, ruleName, "([Ljava/lang/Object;)Ljava/lang/Object;", false),
-                                Type.getType("([Ljava/lang/Object;)Ljava/lang/Object;")
-                        });
+                // Rule.compiled(prefix, this::rule, this::recog)
+                ctor.visitLdcInsn(prefixes.getOrDefault(r.name.getText(), ""));
+                pushRuleLambda(ctor, className, ruleName);
+                pushRuleLambda(ctor, className, r.makeRecogName().get());
+                ctor.visitMethodInsn(INVOKESTATIC, "com/ymcmp/rset/rt/Rule", "compiled", "(Ljava/lang/String;Lcom/ymcmp/rset/rt/RuleMethod;Lcom/ymcmp/rset/rt/RuleMethod;)Lcom/ymcmp/rset/rt/Rule;", true);
                 ctor.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", true);
                 ctor.visitInsn(POP);
             });
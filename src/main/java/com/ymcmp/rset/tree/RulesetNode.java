@@ -5,7 +5,9 @@
 
 package com.ymcmp.rset.tree;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Collections;
 
 import com.ymcmp.lexparse.tree.ParseTree;
 
@@ -21,6 +23,11 @@ public final class RulesetNode extends ParseTree {
 
     public ParseTree expr;
 
+    public boolean memoize;
+
+    // Capture names by slot, filled in by the group before code generation
+    public List<String> captures = Collections.emptyList();
+
     public RulesetNode(Type t, ValueNode name, ParseTree rule) {
         this.type = t;
         this.name = name;
@@ -41,7 +48,7 @@ public final class RulesetNode extends ParseTree {
 
     @Override
     public String getText() {
-        return '(' + type.toString() + ' ' + name.getText()
+        return '(' + (memoize ? "memo " : "") + type.toString() + ' ' + name.getText()
             + ' ' + rule.getText() + ' ' + expr.getText() + ')';
     }
 
@@ -64,6 +71,29 @@ public final class RulesetNode extends ParseTree {
         }
     }
 
+    public Optional<String> makeRecogName() {
+        switch (type) {
+            case RULE:
+            case SUBRULE:
+                return Optional.of("recog" + name.getText());
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /**
+     * The method matching the rule under negation, only generated if the
+     * rule is referenced inside a ~ clause. ~ cannot be part of a name, so
+     * this never clashes with another method.
+     */
+    public Optional<String> makeNegatedTestName() {
+        return makeTestName().map(k -> "test~" + name.getText());
+    }
+
+    public Optional<String> makeNegatedRecogName() {
+        return makeRecogName().map(k -> "recog~" + name.getText());
+    }
+
     public Optional<String> makeActnName() {
         switch (type) {
             case RULE:
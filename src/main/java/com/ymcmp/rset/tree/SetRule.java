@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.tree;
+
+import java.util.Arrays;
+
+import com.ymcmp.lexparse.tree.ParseTree;
+
+/**
+ * Tests one element against a set of chars or ints. The code generator
+ * creates these from alternatives like %a-%z | %_ which all test a single
+ * element, they never come from the parser.
+ *
+ * Char literals like %_ add a list holding the element to the parse stack
+ * where ranges add the element itself, so a set is wrapped if it stands
+ * for char literals only.
+ */
+public final class SetRule extends ParseTree {
+
+    public final boolean chars;
+    public final boolean wrapped;
+    public final int[] values;
+    public final int[] spans;
+
+    public SetRule(boolean chars, boolean wrapped, int[] values, int[] spans) {
+        this.chars = chars;
+        this.wrapped = wrapped;
+        this.values = values;
+        this.spans = spans;
+    }
+
+    @Override
+    public ParseTree getChild(int node) {
+        throw new IndexOutOfBoundsException("SetRule does not have children: " + node);
+    }
+
+    @Override
+    public int getChildCount() {
+        return 0;
+    }
+
+    @Override
+    public String getText() {
+        return '(' + (chars ? (wrapped ? "char-list-set " : "char-set ") : "int-set ")
+                + Arrays.toString(values) + ' ' + Arrays.toString(spans) + ')';
+    }
+}
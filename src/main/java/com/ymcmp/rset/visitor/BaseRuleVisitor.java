@@ -28,6 +28,14 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
 
     public MethodVisitor mv;
 
+    // While true, only the position is tracked: there is no parse stack and
+    // nothing is captured
+    protected boolean recognizer;
+
+    // True while generating code for a clause under an odd number of ~,
+    // every test is emitted with this polarity
+    protected boolean negated;
+
     public BaseRuleVisitor(ClassWriter cw, String className, boolean genDebugInfo) {
         this.cw = cw;
         this.className = className;
@@ -48,22 +56,67 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
         }
     }
 
+    public boolean isRecognizer() {
+        return recognizer;
+    }
+
+    public boolean isNegated() {
+        return negated;
+    }
+
+    /**
+     * Pushes the polarity of the EvalState tests, followed by the collection
+     * they add to
+     */
+    protected void loadTestArguments(int listSlot) {
+        mv.visitInsn(negated ? ICONST_1 : ICONST_0);
+        loadParseStack(listSlot);
+    }
+
+    protected void newParseStack(int listSlot) {
+        if (!recognizer) newObjectNoArgs(listSlot, "java/util/ArrayList");
+    }
+
+    /**
+     * Pushes the collection the EvalState tests add to, which is null for
+     * recognizers
+     */
+    protected void loadParseStack(int listSlot) {
+        if (recognizer) {
+            mv.visitInsn(ACONST_NULL);
+        } else {
+            mv.visitVarInsn(ALOAD, listSlot);
+        }
+    }
+
+    protected void loadEvalState() {
+        mv.visitVarInsn(ALOAD, scope.findNearestLocal(VarType.EVAL_STATE));
+    }
+
     protected void saveStack(int listSlot, int rewindSlot) {
+        if (recognizer) return;
+
         mv.visitVarInsn(ALOAD, listSlot);
         mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "size", "()I", true);
         mv.visitVarInsn(ISTORE, rewindSlot);
     }
 
-    protected void saveRoutine(int listSlot, int rewindSlot) {
+    /**
+     * Saves the size of the parse stack in rewindSlot and the position of
+     * the EvalState in positionSlot, undone by unsaveRoutine
+     */
+    protected void saveRoutine(int listSlot, int rewindSlot, int positionSlot) {
         logMessage("FINER", "Save parse stack");
 
         saveStack(listSlot, rewindSlot);
-        mv.visitVarInsn(ALOAD, 0);
-        mv.visitFieldInsn(GETFIELD, className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "save", "()V", false);
+        loadEvalState();
+        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "save", "()I", false);
+        mv.visitVarInsn(ISTORE, positionSlot);
     }
 
     protected void unsaveStack(int listSlot, int rewindSlot) {
+        if (recognizer) return;
+
         mv.visitVarInsn(ALOAD, listSlot);
         mv.visitVarInsn(ILOAD, rewindSlot);
         mv.visitVarInsn(ALOAD, listSlot);
@@ -72,25 +125,26 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
         mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "clear", "()V", true);
     }
 
-    protected void unsaveRoutine(int listSlot, int rewindSlot) {
+    protected void unsaveRoutine(int listSlot, int rewindSlot, int positionSlot) {
         logMessage("FINER", "Restore parse stack");
 
-        mv.visitVarInsn(ALOAD, 0);
-        mv.visitFieldInsn(GETFIELD, className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "unsave", "()V", false);
+        loadEvalState();
+        mv.visitVarInsn(ILOAD, positionSlot);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "unsave", "(I)V", false);
         unsaveStack(listSlot, rewindSlot);
     }
 
     protected void invokeEvalStateNoObject(int resultSlot, String methodName) {
         final int plst = scope.findNearestLocal(VarType.LIST);
-        mv.visitVarInsn(ALOAD, 0);
-        mv.visitFieldInsn(GETFIELD, className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-        mv.visitVarInsn(ALOAD, plst);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", methodName, "(Ljava/util/Collection;)Z", false);
+        loadEvalState();
+        loadTestArguments(plst);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", methodName, "(ZLjava/util/Collection;)Z", false);
         mv.visitVarInsn(ISTORE, resultSlot);
     }
 
     protected void addToParseStack(final int list, final int plst) {
+        if (recognizer) return;
+
         mv.visitVarInsn(ALOAD, plst);
         mv.visitVarInsn(ALOAD, list);
         mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
@@ -107,8 +161,7 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
     }
 
     protected void updateSaveRoutine() {
-        mv.visitVarInsn(ALOAD, 0);
-        mv.visitFieldInsn(GETFIELD, className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
+        loadEvalState();
         mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "updateSave", "()V", false);
     }
 
@@ -118,6 +171,7 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
         final int plst = scope.findNearestLocal(VarType.LIST);
         final int list = scope.pushNewLocal(VarType.LIST);
         final int rwnd = scope.pushNewLocal(VarType.NUM);
+        final int pos = scope.pushNewLocal(VarType.NUM);
 
         final int flag;
         if (startsFromZero) {
@@ -127,10 +181,10 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
             storeBool(flag, false);
         }
 
-        newObjectNoArgs(list, "java/util/ArrayList");
+        newParseStack(list);
 
         whileLoop(exit -> {
-            saveRoutine(list, rwnd);
+            saveRoutine(list, rwnd, pos);
             visit(rule);
             jumpIfBoolFalse(resultSlot, exit);
         }, (exit, loop) -> {
@@ -140,7 +194,7 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
             ifBoolTrue(resultSlot, this::updateSaveRoutine);
         });
 
-        unsaveRoutine(list, rwnd);
+        unsaveRoutine(list, rwnd, pos);
         addToParseStack(list, plst);
 
         if (startsFromZero) {
@@ -154,5 +208,6 @@ public abstract class BaseRuleVisitor extends BaseVisitor {
 
         scope.popLocal();
         scope.popLocal();
+        scope.popLocal();
     }
 }
\ No newline at end of file
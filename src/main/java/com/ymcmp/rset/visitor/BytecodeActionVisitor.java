@@ -5,14 +5,29 @@
 
 package com.ymcmp.rset.visitor;
 
+import java.util.Map;
+import java.util.Set;
 import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import java.lang.reflect.Method;
 
 import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 
+import com.ymcmp.rset.StaticConstants;
+
 import com.ymcmp.rset.tree.*;
 
+import com.ymcmp.rset.lib.Extensions;
+
 import com.ymcmp.lexparse.tree.ParseTree;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -24,9 +39,52 @@ public class BytecodeActionVisitor extends BaseVisitor {
     private MethodVisitor mv;
     private int locals;
 
+    // Names that might not resolve to a builtin export, null if any name might be shadowed
+    private final Set<String> shadowed;
+    private final Map<String, Method> linked = new LinkedHashMap<>();
+
+    // Where literals are hoisted to, null if they are boxed every time
+    private final StaticConstants consts;
+
+    // Capture slots of the current rule, null if they are bound in the environment instead
+    private Map<String, Integer> slots;
+
+    // Local variables of the current action, null if they live in the environment instead
+    private Map<String, Integer> vars;
+
+    // Local variables that only ever hold numbers, kept as unboxed doubles
+    private Map<String, Integer> nums;
+
     public BytecodeActionVisitor(ClassWriter cw, String className) {
+        this(cw, className, null);
+    }
+
+    public BytecodeActionVisitor(ClassWriter cw, String className, Set<String> shadowed) {
+        this(cw, className, shadowed, null);
+    }
+
+    public BytecodeActionVisitor(ClassWriter cw, String className, Set<String> shadowed, StaticConstants consts) {
         this.cw = cw;
         this.className = className;
+        this.shadowed = shadowed;
+        this.consts = consts;
+    }
+
+    /**
+     * Exports that are called directly by the generated actions. Each one
+     * needs a boolean field (see {@link #linkFieldName}) that tells if the
+     * name still resolves to the builtin at runtime.
+     */
+    public Map<String, Method> getLinkedExports() {
+        return Collections.unmodifiableMap(linked);
+    }
+
+    // The guards are computed by this method, and again when ext imports a class
+    public static final String RELINK_METHOD = "relink";
+    public static final String LINK_VERSION_FIELD = "linkVersion";
+
+    public static String linkFieldName(String export) {
+        return "link$" + export;
     }
 
     @Override
@@ -34,34 +92,321 @@ public class BytecodeActionVisitor extends BaseVisitor {
         return this.mv;
     }
 
+    @Override
+    public StaticConstants getStaticConstants() {
+        return this.consts;
+    }
+
     public void visitValueNode(final ValueNode n) {
         pushAsObject(n);
     }
 
     public void visitUnaryRule(final UnaryRule n) {
         switch (n.op.type) {
-            case S_QM:
+            case S_QM: {
+                final Integer slot = findSlot(n.rule);
+                if (slot != null) {
+                    // Captures.get(caps, slot, env, name)
+                    mv.visitVarInsn(ALOAD, 2);
+                    mv.visitLdcInsn(slot);
+                    mv.visitVarInsn(ALOAD, 1);
+                    visit(n.rule);
+                    mv.visitMethodInsn(INVOKESTATIC, "com/ymcmp/rset/rt/Captures", "get", "([Ljava/lang/Object;ILjava/util/Map;Ljava/lang/String;)Ljava/lang/Object;", false);
+                    break;
+                }
+
+                final Integer num = findNumber(n.rule);
+                if (num != null) {
+                    mv.visitVarInsn(DLOAD, num);
+                    doubleToNumber();
+                    break;
+                }
+
+                final Integer local = findLocal(n.rule);
+                if (local != null) {
+                    // Not assigned yet, the name could still be bound in env
+                    mv.visitVarInsn(ALOAD, local);
+                    mv.visitInsn(DUP);
+                    mv.visitFieldInsn(GETSTATIC, "com/ymcmp/rset/rt/Captures", "UNSET", "Ljava/lang/Object;");
+                    testIf(IF_ACMPNE, () -> {
+                        mv.visitInsn(POP);
+                        mv.visitVarInsn(ALOAD, 1);
+                        visit(n.rule);
+                        mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "get", "(Ljava/lang/Object;)Ljava/lang/Object;", true);
+                    });
+                    break;
+                }
+
                 mv.visitVarInsn(ALOAD, 1);
                 visit(n.rule);
                 mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;", false);
                 mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "get", "(Ljava/lang/Object;)Ljava/lang/Object;", true);
                 break;
+            }
             default:
                 throw new RuntimeException("Unknown unary operator " + n.op);
         }
     }
 
+    private static String getConstantName(final ParseTree rule) {
+        if (rule instanceof ValueNode) {
+            final ValueNode v = (ValueNode) rule;
+            if (v.token.type == com.ymcmp.rset.Type.L_IDENT) return (String) v.toObject();
+        }
+        return null;
+    }
+
+    private Integer findSlot(final ParseTree name) {
+        if (slots == null) return null;
+
+        final String str = getConstantName(name);
+        return str == null ? null : slots.get(str);
+    }
+
+    private Integer findNumber(final ParseTree name) {
+        if (nums == null) return null;
+
+        final String str = getConstantName(name);
+        return str == null ? null : nums.get(str);
+    }
+
+    /**
+     * @return the name if the tree reads a variable by constant name
+     */
+    private static String getReadName(final ParseTree tree) {
+        if (tree instanceof UnaryRule) {
+            final UnaryRule u = (UnaryRule) tree;
+            if (u.op.type == com.ymcmp.rset.Type.S_QM) return getConstantName(u.rule);
+        }
+        return null;
+    }
+
+    private static boolean isArithmetic(final ParseTree tree) {
+        if (tree instanceof BinaryRule) {
+            switch (((BinaryRule) tree).op.type) {
+                case S_AD:
+                case S_MN:
+                case S_ST:
+                case S_DV:
+                case S_MD:
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A tree is numeric if boxing its value as a double (see doubleToNumber)
+     * gives back the value it would have evaluated to: arithmetic, integer
+     * literals, real literals with a fraction and reads of numeric variables.
+     */
+    private static boolean isNumeric(final ParseTree tree, final Set<String> numbers) {
+        if (isArithmetic(tree)) return true;
+        if (tree instanceof ValueNode) {
+            final ValueNode v = (ValueNode) tree;
+            switch (v.token.type) {
+                case L_INT:
+                    return true;
+                case L_REAL: {
+                    final double d = (Double) v.toObject();
+                    return d != (int) d;
+                }
+                default:
+                    return false;
+            }
+        }
+
+        final String name = getReadName(tree);
+        return name != null && numbers.contains(name);
+    }
+
+    private static boolean mentions(final ParseTree tree, final String name) {
+        if (tree == null) return false;
+        if (name.equals(getReadName(tree))) return true;
+        if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.ASSIGN) {
+            final List<ParseTree> rules = ((KaryRule) tree).rules;
+            for (int i = 0; i < rules.size() - 1; ++i) {
+                if (name.equals(getConstantName(rules.get(i)))) return true;
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            if (mentions(tree.getChild(i), name)) return true;
+        }
+        return false;
+    }
+
+    private static void collectAssignments(final ParseTree tree, final String name, final List<ParseTree> values) {
+        if (tree == null) return;
+        if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.ASSIGN) {
+            final List<ParseTree> rules = ((KaryRule) tree).rules;
+            for (int i = 0; i < rules.size() - 1; ++i) {
+                if (name.equals(getConstantName(rules.get(i)))) values.add(rules.get(rules.size() - 1));
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            collectAssignments(tree.getChild(i), name, values);
+        }
+    }
+
+    /**
+     * Finds the variables that can be kept as doubles: the first statement
+     * mentioning them has to assign them (so they never fall back to the
+     * environment) and every value assigned to them has to be numeric.
+     */
+    private static Set<String> inferNumericVariables(final ParseTree expr, final Set<String> candidates) {
+        final List<ParseTree> stmts = expr instanceof KaryRule && ((KaryRule) expr).type == KaryRule.Type.IGNORE
+                ? ((KaryRule) expr).rules : Arrays.asList(expr);
+
+        final Set<String> numbers = new LinkedHashSet<>();
+        for (final String name : candidates) {
+            for (final ParseTree stmt : stmts) {
+                if (!mentions(stmt, name)) continue;
+
+                if (stmt instanceof KaryRule && ((KaryRule) stmt).type == KaryRule.Type.ASSIGN) {
+                    final List<ParseTree> rules = ((KaryRule) stmt).rules;
+                    final boolean assigned = rules.subList(0, rules.size() - 1).stream()
+                            .anyMatch(e -> name.equals(getConstantName(e)));
+                    if (assigned && !mentions(rules.get(rules.size() - 1), name)) numbers.add(name);
+                }
+                break;
+            }
+        }
+
+        // Numeric variables can be assigned to each other, drop the rest until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final String name : numbers.toArray(new String[0])) {
+                final List<ParseTree> values = new ArrayList<>();
+                collectAssignments(expr, name, values);
+                if (!values.stream().allMatch(e -> isNumeric(e, numbers))) {
+                    numbers.remove(name);
+                    changed = true;
+                }
+            }
+        }
+        return numbers;
+    }
+
+    private Integer findLocal(final ParseTree name) {
+        if (vars == null) return null;
+
+        final String str = getConstantName(name);
+        return str == null ? null : vars.get(str);
+    }
+
+    /**
+     * Collects the names the action assigns to, loops assign to _it
+     */
+    private static void collectAssignedNames(final ParseTree tree, final Set<String> names) {
+        if (tree == null) return;
+
+        if (tree instanceof BinaryRule && ((BinaryRule) tree).op.type == com.ymcmp.rset.Type.S_LB) {
+            names.add("_it");
+        } else if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.ASSIGN) {
+            final List<ParseTree> rules = ((KaryRule) tree).rules;
+            for (int i = 0; i < rules.size() - 1; ++i) {
+                final String name = getConstantName(rules.get(i));
+                if (name != null) names.add(name);
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            collectAssignedNames(tree.getChild(i), names);
+        }
+    }
+
+    /**
+     * @return true if some name is only known at runtime, like ?(expr)
+     */
+    private static boolean usesDynamicNames(final ParseTree tree) {
+        if (tree == null) return false;
+
+        if (tree instanceof UnaryRule) {
+            final UnaryRule u = (UnaryRule) tree;
+            if (u.op.type == com.ymcmp.rset.Type.S_QM && getConstantName(u.rule) == null) return true;
+        } else if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.ASSIGN) {
+            final List<ParseTree> rules = ((KaryRule) tree).rules;
+            for (int i = 0; i < rules.size() - 1; ++i) {
+                if (getConstantName(rules.get(i)) == null) return true;
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            if (usesDynamicNames(tree.getChild(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores the value under the name, as a capture if the name has a slot
+     * or as a local variable if it has one
+     */
+    private void storeName(final String name, final Runnable pushValue) {
+        final Integer slot = slots == null ? null : slots.get(name);
+        final Integer local = vars == null ? null : vars.get(name);
+        if (slot != null) {
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitLdcInsn(slot);
+            pushValue.run();
+            mv.visitInsn(AASTORE);
+        } else if (local != null) {
+            pushValue.run();
+            mv.visitVarInsn(ASTORE, local);
+        } else {
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitLdcInsn(name);
+            pushValue.run();
+            mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", true);
+            mv.visitInsn(POP);
+        }
+    }
+
     private void castRuleToDouble(ParseTree rule) {
+        // Nested arithmetic, literals and numeric variables are never boxed
+        if (isArithmetic(rule)) {
+            pushArithmetic((BinaryRule) rule);
+            // doubleToNumber would have boxed -0.0 as 0, adding 0.0 does the same
+            mv.visitInsn(DCONST_0);
+            mv.visitInsn(DADD);
+            return;
+        }
+        if (rule instanceof ValueNode) {
+            final Object value = ((ValueNode) rule).toObject();
+            if (value instanceof Number) {
+                mv.visitLdcInsn(((Number) value).doubleValue());
+                return;
+            }
+        }
+        final String read = getReadName(rule);
+        final Integer num = read == null || nums == null ? null : nums.get(read);
+        if (num != null) {
+            mv.visitVarInsn(DLOAD, num);
+            return;
+        }
+
         visit(rule);
         mv.visitTypeInsn(CHECKCAST, "java/lang/Number");
         mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Number", "doubleValue", "()D", false);
     }
 
-    private void binaryDoubleOp(ParseTree lhs, ParseTree rhs, int op) {
-        castRuleToDouble(lhs);
-        castRuleToDouble(rhs);
+    private void pushArithmetic(final BinaryRule n) {
+        final int op;
+        switch (n.op.type) {
+            case S_AD:  op = DADD; break;
+            case S_MN:  op = DSUB; break;
+            case S_ST:  op = DMUL; break;
+            case S_DV:  op = DDIV; break;
+            case S_MD:  op = DREM; break;
+            default:    throw new RuntimeException("Unknown arithmetic operator " + n.op);
+        }
+        castRuleToDouble(n.rule1);
+        castRuleToDouble(n.rule2);
         mv.visitInsn(op);
-        doubleToNumber();
     }
 
     private void callMathlibCompareMethod(ParseTree lhs, ParseTree rhs, String method) {
@@ -95,43 +440,35 @@ public class BytecodeActionVisitor extends BaseVisitor {
                 // (a, b, c) { ?_it }
                 visit(n.rule1);
                 mv.visitInsn(DUP);
-                mv.visitMethodInsn(INVOKESTATIC, "com/ymcmp/rset/lib/Arraylib", "toIterable", "(Ljava/lang/Object;)Ljava/lang/Iterable;", false);
+                mv.visitMethodInsn(INVOKESTATIC, "com/ymcmp/rset/lib/Arraylib", "iterate", "(Ljava/lang/Object;)Ljava/util/Iterator;", false);
                 mv.visitInsn(DUP);
                 testIfElse(IFNULL, () -> {
-                    // At this point, the data on stack is an Iterable
+                    // At this point, the data on stack is an Iterator (nothing was copied)
                     final int local = ++locals;
-                    mv.visitMethodInsn(INVOKEINTERFACE, "java/lang/Iterable", "iterator", "()Ljava/util/Iterator;", true);
                     mv.visitVarInsn(ASTORE, local);
                     whileLoop(exit -> {
                         mv.visitVarInsn(ALOAD, local);
                         mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z", true);
                         mv.visitJumpInsn(IFEQ, exit);
                     }, (exit, loop) -> {
-                        mv.visitVarInsn(ALOAD, 1); // store looping value as _it
-                        mv.visitLdcInsn("_it");
-                        mv.visitVarInsn(ALOAD, local);
-                        mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Iterator", "next", "()Ljava/lang/Object;", true);
-                        mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", true);
-                        visit(n.rule2);
-                        mv.visitInsn(POP2);
+                        // store looping value as _it
+                        storeName("_it", () -> {
+                            mv.visitVarInsn(ALOAD, local);
+                            mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Iterator", "next", "()Ljava/lang/Object;", true);
+                        });
+                        visitForEffect(n.rule2);
                     });
                     --locals;
                 }, () -> mv.visitInsn(POP));
                 break;
             case S_AD:
-                binaryDoubleOp(n.rule1, n.rule2, DADD);
-                break;
             case S_MN:
-                binaryDoubleOp(n.rule1, n.rule2, DSUB);
-                break;
             case S_ST:
-                binaryDoubleOp(n.rule1, n.rule2, DMUL);
-                break;
             case S_DV:
-                binaryDoubleOp(n.rule1, n.rule2, DDIV);
-                break;
             case S_MD:
-                binaryDoubleOp(n.rule1, n.rule2, DREM);
+                // Only the outermost operation is boxed
+                pushArithmetic(n);
+                doubleToNumber();
                 break;
             case S_EX:
                 visit(n.rule1);
@@ -199,14 +536,137 @@ public class BytecodeActionVisitor extends BaseVisitor {
         storeToArray(rules);
     }
 
-    @Override
-    public void visitRuleCall(final List<ParseTree> rules) {
+    private void dynamicCall(final List<ParseTree> rules) {
         visit(rules.get(0));
         mv.visitTypeInsn(CHECKCAST, "java/util/function/Function");
         storeToArray(rules.subList(1, rules.size()));
         mv.visitMethodInsn(INVOKEINTERFACE, "java/util/function/Function", "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", true);
     }
 
+    private static String getCalleeName(final ParseTree callee) {
+        // Only ?_name where _name is an identifier
+        if (callee instanceof UnaryRule) {
+            final UnaryRule u = (UnaryRule) callee;
+            if (u.op.type == com.ymcmp.rset.Type.S_QM && u.rule instanceof ValueNode) {
+                final ValueNode v = (ValueNode) u.rule;
+                if (v.token.type == com.ymcmp.rset.Type.L_IDENT) return (String) v.toObject();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLinkableParameter(final Class<?> cl) {
+        return !cl.isPrimitive() || cl == double.class;
+    }
+
+    private Method resolveStaticCall(final List<ParseTree> rules) {
+        if (shadowed == null) return null;
+
+        final String name = getCalleeName(rules.get(0));
+        if (name == null || shadowed.contains(name)) return null;
+
+        final Method method = Extensions.findBuiltin(name);
+        if (method == null) return null;
+
+        final Class<?>[] params = method.getParameterTypes();
+        final int argc = rules.size() - 1;
+        final int fixed = method.isVarArgs() ? params.length - 1 : params.length;
+        if (method.isVarArgs() ? argc < fixed : argc != fixed) {
+            // Let the dynamic call report the mismatch
+            return null;
+        }
+
+        for (int i = 0; i < fixed; ++i) {
+            if (!isLinkableParameter(params[i])) return null;
+        }
+        if (method.isVarArgs() && params[fixed].getComponentType().isPrimitive()) return null;
+
+        return method;
+    }
+
+    private void pushArgument(final ParseTree rule, final Class<?> type) {
+        if (type == double.class) {
+            castRuleToDouble(rule);
+            return;
+        }
+
+        visit(rule);
+        if (type != Object.class) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        }
+    }
+
+    private void boxReturnValue(final Class<?> type) {
+        if (type == void.class) {
+            mv.visitInsn(ACONST_NULL);
+        } else if (type.isPrimitive()) {
+            final Type prim = Type.getType(type);
+            final String wrapper;
+            switch (prim.getSort()) {
+                case Type.BOOLEAN:  wrapper = "java/lang/Boolean"; break;
+                case Type.CHAR:     wrapper = "java/lang/Character"; break;
+                case Type.BYTE:     wrapper = "java/lang/Byte"; break;
+                case Type.SHORT:    wrapper = "java/lang/Short"; break;
+                case Type.INT:      wrapper = "java/lang/Integer"; break;
+                case Type.FLOAT:    wrapper = "java/lang/Float"; break;
+                case Type.LONG:     wrapper = "java/lang/Long"; break;
+                case Type.DOUBLE:   wrapper = "java/lang/Double"; break;
+                default: throw new RuntimeException("Unknown primitive type " + type);
+            }
+            mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + prim.getDescriptor() + ")L" + wrapper + ";", false);
+        }
+    }
+
+    private void staticCall(final Method method, final List<ParseTree> args) {
+        final Class<?>[] params = method.getParameterTypes();
+        final int fixed = method.isVarArgs() ? params.length - 1 : params.length;
+        for (int i = 0; i < fixed; ++i) {
+            pushArgument(args.get(i), params[i]);
+        }
+
+        if (method.isVarArgs()) {
+            final Class<?> component = params[fixed].getComponentType();
+            final List<ParseTree> rest = args.subList(fixed, args.size());
+            mv.visitLdcInsn(rest.size());
+            mv.visitTypeInsn(ANEWARRAY, Type.getInternalName(component));
+            for (int i = 0; i < rest.size(); ++i) {
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(i);
+                pushArgument(rest.get(i), component);
+                mv.visitInsn(AASTORE);
+            }
+        }
+
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(method.getDeclaringClass()),
+                method.getName(), Type.getMethodDescriptor(method), false);
+        boxReturnValue(method.getReturnType());
+    }
+
+    @Override
+    public void visitRuleCall(final List<ParseTree> rules) {
+        final Method method = resolveStaticCall(rules);
+        if (method == null) {
+            dynamicCall(rules);
+            return;
+        }
+
+        // The export could be shadowed by an imported class or be disabled
+        final String name = getCalleeName(rules.get(0));
+        linked.put(name, method);
+        // if (linkVersion != ext.getVersion()) relink();
+        selfGetField(className, LINK_VERSION_FIELD, "I");
+        selfGetField(className, "ext", "Lcom/ymcmp/rset/lib/Extensions;");
+        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/lib/Extensions", "getVersion", "()I", false);
+        testIf(IF_ICMPEQ, () -> {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKESPECIAL, className, RELINK_METHOD, "()V", false);
+        });
+        selfGetField(className, linkFieldName(name), "Z");
+        testIfElse(IFEQ,
+                () -> staticCall(method, rules.subList(1, rules.size())),
+                () -> dynamicCall(rules));
+    }
+
     @Override
     public void visitRuleAnd(final List<ParseTree> rules) {
         generateShortCircuitRoutine(IFEQ, rules);
@@ -217,31 +677,91 @@ public class BytecodeActionVisitor extends BaseVisitor {
         generateShortCircuitRoutine(IFNE, rules);
     }
 
+    /**
+     * Visits the tree without leaving its value on the stack
+     */
+    private void visitForEffect(final ParseTree tree) {
+        if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.ASSIGN) {
+            assign(((KaryRule) tree).rules, false);
+        } else {
+            visit(tree);
+            mv.visitInsn(POP);
+        }
+    }
+
     @Override
     public void visitRuleAssign(final List<ParseTree> rules) {
+        assign(rules, true);
+    }
+
+    private void assign(final List<ParseTree> rules, final boolean keepValue) {
         // NOTE: This implementation does not mutate maps or arrays
         final int k = rules.size() - 1;
+        if (nums != null && isNumeric(rules.get(k), nums.keySet())) {
+            assignNumber(rules, keepValue);
+            return;
+        }
+
         final int local = ++locals;
         visit(rules.get(k));
         mv.visitVarInsn(ASTORE, local);
         // a = b = c = d --> a, b, c will be d
         for (int i = k - 1; i >= 0; --i) {
+            final String name = getConstantName(rules.get(i));
+            if (name != null) {
+                storeName(name, () -> mv.visitVarInsn(ALOAD, local));
+                continue;
+            }
+
             mv.visitVarInsn(ALOAD, 1);
             visit(rules.get(i));
             mv.visitVarInsn(ALOAD, local);
             mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", true);
             mv.visitInsn(POP);
         }
-        mv.visitVarInsn(ALOAD, local);
+        if (keepValue) mv.visitVarInsn(ALOAD, local);
         --locals;
     }
 
+    private void assignNumber(final List<ParseTree> rules, final boolean keepValue) {
+        // Same as assign, but the value stays a double until something needs the box
+        final int k = rules.size() - 1;
+        final int local = ++locals;
+        ++locals;
+        castRuleToDouble(rules.get(k));
+        mv.visitVarInsn(DSTORE, local);
+        for (int i = k - 1; i >= 0; --i) {
+            final String name = getConstantName(rules.get(i));
+            final Integer num = name == null ? null : nums.get(name);
+            if (num != null) {
+                mv.visitVarInsn(DLOAD, local);
+                mv.visitVarInsn(DSTORE, num);
+            } else if (name != null) {
+                storeName(name, () -> {
+                    mv.visitVarInsn(DLOAD, local);
+                    doubleToNumber();
+                });
+            } else {
+                mv.visitVarInsn(ALOAD, 1);
+                visit(rules.get(i));
+                mv.visitVarInsn(DLOAD, local);
+                doubleToNumber();
+                mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", true);
+                mv.visitInsn(POP);
+            }
+        }
+        if (keepValue) {
+            mv.visitVarInsn(DLOAD, local);
+            doubleToNumber();
+        }
+        locals -= 2;
+    }
+
     @Override
     public void visitRuleIgnore(final List<ParseTree> rules) {
         int i = 0;
         for (; i < rules.size() - 1; ++i) {
-            visit(rules.get(i));
-            mv.visitInsn(POP);
+            visitForEffect(rules.get(i));
         }
         // Last expression keeps it's value
         visit(rules.get(i));
@@ -249,13 +769,61 @@ public class BytecodeActionVisitor extends BaseVisitor {
 
     public void visitRulesetNode(final RulesetNode n) {
         final String actnName = n.makeActnName().get();
-        mv = cw.visitMethod(ACC_PUBLIC, actnName, "(Ljava/util/Map;)Ljava/lang/Object;", "(Ljava/util/Map<Ljava/lang/String;Ljava/lang/Object;>;)Ljava/lang/Object;", null);
+        mv = cw.visitMethod(ACC_PUBLIC, actnName, "(Ljava/util/Map;[Ljava/lang/Object;)Ljava/lang/Object;", "(Ljava/util/Map<Ljava/lang/String;Ljava/lang/Object;>;[Ljava/lang/Object;)Ljava/lang/Object;", null);
         mv.visitCode();
         if (n.expr == null) {
             mv.visitInsn(ACONST_NULL);
         } else {
-            locals = 1;
+            // env@1, caps@2
+            locals = 2;
+            slots = new HashMap<>();
+            for (int i = 0; i < n.captures.size(); ++i) {
+                slots.put(n.captures.get(i), i);
+            }
+
+            if (!usesDynamicNames(n.expr)) {
+                // Every other name the action assigns to gets a local, starting as UNSET
+                final Set<String> names = new LinkedHashSet<>();
+                collectAssignedNames(n.expr, names);
+                names.removeAll(slots.keySet());
+
+                // The ones that only hold numbers are doubles, _it holds the elements of loops
+                final Set<String> candidates = new LinkedHashSet<>(names);
+                candidates.remove("_it");
+
+                nums = new HashMap<>();
+                for (final String name : inferNumericVariables(n.expr, candidates)) {
+                    final int local = ++locals;
+                    ++locals;
+                    nums.put(name, local);
+                    mv.visitInsn(DCONST_0);
+                    mv.visitVarInsn(DSTORE, local);
+                }
+                names.removeAll(nums.keySet());
+
+                vars = new HashMap<>();
+                for (final String name : names) {
+                    final int local = ++locals;
+                    vars.put(name, local);
+                    mv.visitFieldInsn(GETSTATIC, "com/ymcmp/rset/rt/Captures", "UNSET", "Ljava/lang/Object;");
+                    mv.visitVarInsn(ASTORE, local);
+                }
+            } else if (!slots.isEmpty()) {
+                // Any name could refer to a capture, so bind all of them
+                for (int i = 0; i < n.captures.size(); ++i) {
+                    mv.visitVarInsn(ALOAD, 2);
+                    mv.visitLdcInsn(i);
+                    mv.visitVarInsn(ALOAD, 1);
+                    mv.visitLdcInsn(n.captures.get(i));
+                    mv.visitMethodInsn(INVOKESTATIC, "com/ymcmp/rset/rt/Captures", "bind", "([Ljava/lang/Object;ILjava/util/Map;Ljava/lang/String;)V", false);
+                }
+                slots = null;
+            }
+
             visit(n.expr);
+            slots = null;
+            vars = null;
+            nums = null;
         }
         mv.visitInsn(ARETURN);
         mv.visitMaxs(0, 0);
@@ -7,6 +7,10 @@ package com.ymcmp.rset.visitor;
 
 import java.util.Map;
 import java.util.List;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 import java.util.function.Consumer;
 
@@ -16,6 +20,7 @@ import org.objectweb.asm.MethodVisitor;
 
 import com.ymcmp.rset.Type;
 import com.ymcmp.rset.Scope;
+import com.ymcmp.rset.StaticConstants;
 import com.ymcmp.rset.Scope.VarType;
 
 import com.ymcmp.rset.tree.*;
@@ -26,22 +31,36 @@ import static org.objectweb.asm.Opcodes.*;
 
 public class BytecodeRuleVisitor extends BaseRuleVisitor {
 
+    // Switch dispatch tables larger than this are not worth it
+    private static final int MAX_DISPATCH_KEYS = 1024;
+
     private final Map<String, Consumer<BytecodeRuleVisitor>> refs;
+    private final Map<String, RulesetNode> defs;
+    private final FirstSets firstSets;
+
+    private final StaticConstants consts;
+
+    // Capture names of the rule being generated, indexed by slot
+    private List<String> captures;
 
     public int RESULT;
     public List<ParseTree> SUBST_VARS;
 
-    public BytecodeRuleVisitor(ClassWriter cw, String className, boolean genDebugInfo, Map<String, Consumer<BytecodeRuleVisitor>> refs) {
+    public BytecodeRuleVisitor(ClassWriter cw, String className, boolean genDebugInfo, Map<String, Consumer<BytecodeRuleVisitor>> refs, Map<String, RulesetNode> defs, StaticConstants consts) {
         super(cw, className, genDebugInfo);
         this.refs = refs;
+        this.defs = defs;
+        this.firstSets = new FirstSets(defs);
+        this.consts = consts;
     }
 
-    private void loadEvalState() {
-        selfGetField(className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
+    @Override
+    public StaticConstants getStaticConstants() {
+        return this.consts;
     }
 
     private void callEvalStateTest(final int localParseStack, final String name, final String params) {
-        mv.visitVarInsn(ALOAD, localParseStack);
+        loadTestArguments(localParseStack);
         mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", name, params, false);
         mv.visitVarInsn(ISTORE, RESULT);
     }
@@ -82,56 +101,74 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
                 logMessage("FINE", "Test for " + n.getText());
 
                 final int plst = scope.findNearestLocal(VarType.LIST);
-                loadEvalState();
-
-                pushAsObject(n);
-
-                if (n.token.type == Type.L_CHARS) {
-                    // generate a loop that tests equality on every index
-                    // %abc is short-hand for %a %b %c which becomes
-                    // testEquality((Character) 'a') testEquality((Character) 'b') testEquality((Character) 'c')
-
-                    final int arrChars = scope.pushNewLocal(VarType.LIST);
-                    final int lst = scope.pushNewLocal(VarType.LIST);
-                    mv.visitVarInsn(ASTORE, arrChars);
-                    newObjectNoArgs(lst, "java/util/ArrayList");
-                    storeBool(RESULT, false);
-
-                    // Strings are immutable, compute length at compile time
-                    fixedIntCounter(scope.pushNewLocal(VarType.NUM), 0, n.toObject().toString().length(), (i, exit, loop) -> {
+                switch (n.token.type) {
+                    case L_CHARS: {
+                        // %abc is short-hand for %a %b %c which becomes
+                        // testChar('a') testChar('b') testChar('c')
+                        // Strings are immutable, so the tests are unrolled at compile time
+
+                        final Label exit = new Label();
+                        final String str = n.toObject().toString();
+                        final int lst = scope.pushNewLocal(VarType.LIST);
+                        newParseStack(lst);
+                        storeBool(RESULT, false);
+
+                        for (int i = 0; i < str.length(); ++i) {
+                            loadEvalState();
+                            mv.visitLdcInsn((int) str.charAt(i));
+                            callEvalStateTest(lst, "testChar", "(CZLjava/util/Collection;)Z");
+                            jumpIfBoolFalse(RESULT, exit);
+                        }
+                        mv.visitLabel(exit);
+                        addToParseStack(lst, plst);
+                        scope.popLocal();
+                        break;
+                    }
+                    case L_INT:
                         loadEvalState();
-                        mv.visitVarInsn(ALOAD, arrChars);
-                        mv.visitVarInsn(ILOAD, i);
-                        mv.visitInsn(CALOAD);
-                        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;", false);
-                        callEvalStateTest(lst, "testEquality", "(Ljava/lang/Object;Ljava/util/Collection;)Z");
-                        jumpIfBoolFalse(RESULT, exit);
-                    });
-                    mv.visitInsn(POP);
-                    addToParseStack(lst, plst);
-                    scope.popLocal();
-                    scope.popLocal();
-                    scope.popLocal();
-                } else {
-                    // Other data types just call testEquality, nothing special is needed
-                    callEvalStateTest(plst, "testEquality", "(Ljava/lang/Object;Ljava/util/Collection;)Z");
+                        mv.visitLdcInsn(n.toObject());
+                        callEvalStateTest(plst, "testInt", "(IZLjava/util/Collection;)Z");
+                        break;
+                    default:
+                        // Other data types just call testEquality, nothing special is needed
+                        loadEvalState();
+                        pushAsObject(n);
+                        callEvalStateTest(plst, "testEquality", "(Ljava/lang/Object;ZLjava/util/Collection;)Z");
                 }
             }
         }
     }
 
+    private static boolean isBinaryClassName(final String name) {
+        // Array classes like [I are not, they still go through Class.forName
+        if (name.isEmpty() || name.startsWith(".") || name.endsWith(".") || name.contains("..")) return false;
+        for (final String part : name.split("\\.")) {
+            if (!Character.isJavaIdentifierStart(part.charAt(0))) return false;
+            for (int i = 1; i < part.length(); ++i) {
+                if (!Character.isJavaIdentifierPart(part.charAt(i))) return false;
+            }
+        }
+        return true;
+    }
+
     private void testInheritanceRoutine(final ValueNode r, final boolean from) {
         try {
             final String cl = r.toObject().toString();
             logMessage("FINE", from
                     ? ("Test if class of slot inherits from class '" + cl + "'")
                     : ("Test if class '" + cl + "' inherits from class of slot"));
-            // load the class at runtime instead of compile time
             loadEvalState();
-            mv.visitLdcInsn(cl);
-            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;", false);
+            if (isBinaryClassName(cl)) {
+                // A class constant is resolved (by the same class loader as
+                // Class.forName) the first time it runs, after that it is free
+                mv.visitLdcInsn(org.objectweb.asm.Type.getObjectType(cl.replace('.', '/')));
+            } else {
+                // Not a valid class name, keep failing the same way at runtime
+                mv.visitLdcInsn(cl);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;", false);
+            }
             mv.visitInsn(from ? ICONST_1 : ICONST_0);
-            callEvalStateTest(scope.findNearestLocal(VarType.LIST), "testInheritance", "(Ljava/lang/Class;ZLjava/util/Collection;)Z");
+            callEvalStateTest(scope.findNearestLocal(VarType.LIST), "testInheritance", "(Ljava/lang/Class;ZZLjava/util/Collection;)Z");
         } catch (NullPointerException ex) {
             throw new RuntimeException("() does not name a class");
         }
@@ -142,20 +179,13 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
             case S_TD: {
                 logMessage("FINE", "Negate next clause");
 
-                final int negateSave = scope.pushNewLocal(VarType.BOOL);
-                loadEvalState();
-                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "getNegateFlag", "()Z", false);
-                mv.visitVarInsn(ISTORE, negateSave);
-                // Negate the current state: ~~'a' actually means 'a'
-                loadEvalState();
-                mv.visitVarInsn(ILOAD, negateSave);
-                testIfElse(IFNE, () -> mv.visitInsn(ICONST_1), () -> mv.visitInsn(ICONST_0));
-                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "setNegateFlag", "(Z)V", false);
-                visit(n.rule);
-                loadEvalState();
-                mv.visitVarInsn(ILOAD, negateSave);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "setNegateFlag", "(Z)V", false);
-                scope.popLocal();
+                // The polarity is known here: ~~'a' actually means 'a'
+                negated = !negated;
+                try {
+                    visit(n.rule);
+                } finally {
+                    negated = !negated;
+                }
                 break;
             }
             case S_QM: {
@@ -163,11 +193,13 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
 
                 final int list = scope.findNearestLocal(VarType.LIST);
                 final int rwnd = scope.pushNewLocal(VarType.NUM);
-                saveRoutine(list, rwnd);
+                final int pos = scope.pushNewLocal(VarType.NUM);
+                saveRoutine(list, rwnd, pos);
                 visit(n.rule);
-                ifBoolElse(RESULT, this::updateSaveRoutine, () -> unsaveRoutine(list, rwnd));
+                ifBoolElse(RESULT, this::updateSaveRoutine, () -> unsaveRoutine(list, rwnd, pos));
                 storeBool(RESULT, true);
                 scope.popLocal();
+                scope.popLocal();
                 break;
             }
             case S_AD:
@@ -183,7 +215,7 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
 
                     loadEvalState();
                     mv.visitLdcInsn(selector);
-                    callEvalStateTest(scope.findNearestLocal(VarType.LIST), "hasFieldOrMethod", "(Ljava/lang/String;Ljava/util/Collection;)Z");
+                    callEvalStateTest(scope.findNearestLocal(VarType.LIST), "hasFieldOrMethod", "(Ljava/lang/String;ZLjava/util/Collection;)Z");
                     break;
                 } catch (NullPointerException ex) {
                     throw new RuntimeException("Selector cannot be ()");
@@ -198,28 +230,16 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
                 logMessage("FINE", "Destructing Array or Collection:");
 
                 loadEvalState();
-                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "destructArray", "()Lcom/ymcmp/rset/rt/EvalState;", false);
-
-                mv.visitInsn(DUP);
-                testIfElse(IFNULL, () -> {
-                    // save this.evalState,
-                    final int save = scope.pushNewLocal(VarType.EVAL_STATE);
-                    loadEvalState();
-                    mv.visitVarInsn(ASTORE, save);
-
-                    // update this.state to the newly created state (TOP OF STACK),
-                    selfPutField(className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-
-                    // test against the inner rules,
+                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "enterArray", "()Z", false);
+                testIfElse(IFEQ, () -> {
+                    // the same state now reads the elements of the destructed
+                    // one, the outer position is restored afterwards
                     visit(n.rule);
 
-                    // restore this.state
-                    mv.visitVarInsn(ALOAD, save);
-                    selfPutField(className, "state", "Lcom/ymcmp/rset/rt/EvalState;");
-                    scope.popLocal();
+                    loadEvalState();
+                    mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "exitArray", "()V", false);
                 }, () -> {
-                    // evalState is null, result is set to false because item was not destructable
-                    mv.visitInsn(POP);
+                    // result is set to false because item was not destructable
                     storeBool(RESULT, false);
                 });
                 break;
@@ -229,16 +249,170 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         }
     }
 
+    public void visitSetRule(final SetRule n) {
+        logMessage("FINE", "Test for one of " + n.getText());
+
+        final int plst = scope.findNearestLocal(VarType.LIST);
+        if (n.wrapped) {
+            // Same as a char literal, the list is added even if the test fails
+            final int lst = scope.pushNewLocal(VarType.LIST);
+            newParseStack(lst);
+            testSetRoutine(n, lst);
+            addToParseStack(lst, plst);
+            scope.popLocal();
+        } else {
+            testSetRoutine(n, plst);
+        }
+    }
+
+    private void testSetRoutine(final SetRule n, final int lst) {
+        loadEvalState();
+        // Wrapping does not change the members, so both share the constant
+        final String key = n.chars + Arrays.toString(n.values) + Arrays.toString(n.spans);
+        consts.load(mv, key, "Lcom/ymcmp/rset/rt/RangeSet;", m -> pushSetConstant(m, n));
+        callEvalStateTest(lst, n.chars ? "testCharSet" : "testIntSet",
+                "(Lcom/ymcmp/rset/rt/RangeSet;ZLjava/util/Collection;)Z");
+    }
+
+    private static void pushIntArray(final MethodVisitor mv, final int[] array) {
+        mv.visitLdcInsn(array.length);
+        mv.visitIntInsn(NEWARRAY, T_INT);
+        for (int i = 0; i < array.length; ++i) {
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(i);
+            mv.visitLdcInsn(array[i]);
+            mv.visitInsn(IASTORE);
+        }
+    }
+
+    private static void pushSetConstant(final MethodVisitor mv, final SetRule set) {
+        // new RangeSet(%values, %spans)
+        mv.visitTypeInsn(NEW, "com/ymcmp/rset/rt/RangeSet");
+        mv.visitInsn(DUP);
+        pushIntArray(mv, set.values);
+        pushIntArray(mv, set.spans);
+        mv.visitMethodInsn(INVOKESPECIAL, "com/ymcmp/rset/rt/RangeSet", "<init>", "([I[I)V", false);
+    }
+
+    /**
+     * @return the single-element test as a set, null if it is not one
+     */
+    private SetRule asSetRule(final ParseTree tree, final List<ParseTree> subst, final int depth) {
+        if (tree instanceof SetRule) return (SetRule) tree;
+        if (tree instanceof ValueNode) {
+            final ValueNode node = (ValueNode) tree;
+            switch (node.token.type) {
+                case L_CHARS: {
+                    final String str = node.toObject().toString();
+                    if (str.length() != 1) return null;
+                    return new SetRule(true, true, new int[]{ str.charAt(0) }, new int[0]);
+                }
+                case L_INT:
+                    return new SetRule(false, false, new int[]{ (Integer) node.toObject() }, new int[0]);
+                default:
+                    return null;
+            }
+        }
+        if (tree instanceof BinaryRule) {
+            final BinaryRule rule = (BinaryRule) tree;
+            if (rule.op.type != Type.S_MN) return null;
+
+            final ValueNode node1 = (ValueNode) rule.rule1;
+            final ValueNode node2 = (ValueNode) rule.rule2;
+            final Type type1 = node1.token.type;
+            final Type type2 = node2.token.type;
+            if (type1 == Type.L_CHARS && type2 == Type.L_CHARS) {
+                final String a = node1.toObject().toString();
+                final String b = node2.toObject().toString();
+                // Invalid ranges are reported by visitBinaryRule
+                if (a.length() != 1 || b.length() != 1) return null;
+                return new SetRule(true, false, new int[0], new int[]{ a.charAt(0), b.charAt(0) });
+            }
+            if (type1 == Type.L_INT && type2 == Type.L_INT) {
+                return new SetRule(false, false, new int[0], new int[]{ (Integer) node1.toObject(), (Integer) node2.toObject() });
+            }
+            return null;
+        }
+        if (tree instanceof RefRule && depth < 16) {
+            final RefRule rule = (RefRule) tree;
+            final String name = rule.node.getText();
+            try {
+                final int i = Integer.parseInt(name);
+                if (subst == null || i >= subst.size()) return null;
+                return asSetRule(subst.get(i), subst, depth + 1);
+            } catch (NumberFormatException ex) {
+                // Only fragments are inlined, subrules push their result instead
+                final RulesetNode def = defs.get(name);
+                if (def == null || def.type != RulesetNode.Type.FRAGMENT) return null;
+                return asSetRule(def.rule, rule.subst, depth + 1);
+            }
+        }
+        if (tree instanceof KaryRule && ((KaryRule) tree).type == KaryRule.Type.SWITCH) {
+            SetRule acc = null;
+            for (final ParseTree alt : ((KaryRule) tree).rules) {
+                final SetRule set = asSetRule(alt, subst, depth);
+                if (set == null || acc != null && !sameShape(acc, set)) return null;
+                acc = acc == null ? set : union(acc, set);
+            }
+            return acc;
+        }
+        return null;
+    }
+
+    private static SetRule union(final SetRule a, final SetRule b) {
+        final int[] values = Arrays.copyOf(a.values, a.values.length + b.values.length);
+        System.arraycopy(b.values, 0, values, a.values.length, b.values.length);
+        final int[] spans = Arrays.copyOf(a.spans, a.spans.length + b.spans.length);
+        System.arraycopy(b.spans, 0, spans, a.spans.length, b.spans.length);
+        return new SetRule(a.chars, a.wrapped, values, spans);
+    }
+
+    private static boolean sameShape(final SetRule a, final SetRule b) {
+        // Under negation the last alternative decides what is added to the
+        // parse stack, so only sets that add the same thing can be merged
+        return a.chars == b.chars && a.wrapped == b.wrapped;
+    }
+
+    /**
+     * Replaces runs of alternatives that each test a single char (or int)
+     * with one SetRule. Each of them consumes exactly one element and adds
+     * the same shape to the parse stack, so only the first matching one
+     * matters and under negation all of them have to fail, which is set
+     * membership.
+     */
+    private List<ParseTree> mergeSingleElementAlternatives(final List<ParseTree> rules) {
+        final List<ParseTree> merged = new ArrayList<>();
+        SetRule run = null;
+        int start = 0;
+        for (int i = 0; i <= rules.size(); ++i) {
+            final SetRule set = i < rules.size() ? asSetRule(rules.get(i), SUBST_VARS, 0) : null;
+            if (set != null && run != null && sameShape(run, set)) {
+                run = union(run, set);
+                continue;
+            }
+
+            // A run of one is left as it was
+            if (run != null) merged.add(i - start > 1 ? run : rules.get(start));
+            if (set == null && i < rules.size()) merged.add(rules.get(i));
+            run = set;
+            start = i;
+        }
+        return merged;
+    }
+
+    private static char rangeChar(ValueNode node) {
+        final String str = node.toObject().toString();
+        if (str.length() != 1) {
+            throw new RuntimeException("Invalid char range on " + str + ", length > 1");
+        }
+        return str.charAt(0);
+    }
+
     private void ldcRangeConstant(ValueNode node) {
-        pushAsObject(node);
         if (node.token.type == Type.L_CHARS) {
-            final String str = node.toObject().toString();
-            if (str.length() != 1) {
-                throw new RuntimeException("Invalid char range on " + str + ", length > 1");
-            }
-            mv.visitInsn(ICONST_0);
-            mv.visitInsn(CALOAD);
-            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;", false);
+            consts.loadValue(mv, rangeChar(node));
+        } else {
+            pushAsObject(node);
         }
     }
 
@@ -249,11 +423,23 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
                 final ValueNode node2 = (ValueNode) n.rule2;
                 logMessage("FINE", "Test range of [" + node1.getText() + ", " + node2.getText() + "]");
 
+                final int plst = scope.findNearestLocal(VarType.LIST);
+                final Type type1 = node1.token.type;
+                final Type type2 = node2.token.type;
                 loadEvalState();
-                ldcRangeConstant(node1);
-                ldcRangeConstant(node2);
-                callEvalStateTest(scope.findNearestLocal(VarType.LIST),
-                        "testRange", "(Ljava/lang/Comparable;Ljava/lang/Comparable;Ljava/util/Collection;)Z");
+                if (type1 == Type.L_CHARS && type2 == Type.L_CHARS) {
+                    mv.visitLdcInsn((int) rangeChar(node1));
+                    mv.visitLdcInsn((int) rangeChar(node2));
+                    callEvalStateTest(plst, "testCharRange", "(CCZLjava/util/Collection;)Z");
+                } else if (type1 == Type.L_INT && type2 == Type.L_INT) {
+                    mv.visitLdcInsn(node1.toObject());
+                    mv.visitLdcInsn(node2.toObject());
+                    callEvalStateTest(plst, "testIntRange", "(IIZLjava/util/Collection;)Z");
+                } else {
+                    ldcRangeConstant(node1);
+                    ldcRangeConstant(node2);
+                    callEvalStateTest(plst, "testRange", "(Ljava/lang/Comparable;Ljava/lang/Comparable;ZLjava/util/Collection;)Z");
+                }
                 break;
             }
             default:
@@ -268,7 +454,7 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         final Label exit = new Label();
         final int out = scope.findNearestLocal(VarType.LIST);
         final int lst = scope.pushNewLocal(VarType.LIST);
-        newObjectNoArgs(lst, "java/util/ArrayList");
+        newParseStack(lst);
         for (int i = 0; i < ruleCount; ++i) {
             logMessage("FINER", "Sequential clause " + (i + 1) + " out of " + ruleCount + ":");
 
@@ -282,7 +468,203 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         scope.popLocal();
     }
 
-    public void visitRuleSwitch(final List<ParseTree> rules) {
+    /**
+     * Which alternative of a switch clause has to be taken for each possible
+     * next element. Only built if the alternatives have disjoint FIRST sets
+     * and none of them are nullable, so every other alternative is known to
+     * fail.
+     */
+    private static final class SwitchPlan {
+
+        // char or int to index of alternative, null if not used
+        public TreeMap<Integer, Integer> chars;
+        public TreeMap<Integer, Integer> ints;
+
+        // constant to index of alternative (compared with equals), null if ranges are involved
+        public Map<Object, Integer> consts;
+    }
+
+    private SwitchPlan planSwitch(final List<ParseTree> rules) {
+        final List<FirstSets.Result> firsts = new ArrayList<>();
+        for (final ParseTree rule : rules) {
+            final FirstSets.Result first = firstSets.of(rule, SUBST_VARS);
+            if (!first.isKnown() || first.nullable) return null;
+            firsts.add(first);
+        }
+
+        boolean allChars = true;
+        boolean allInts = true;
+        boolean hasRanges = false;
+        for (final FirstSets.Result first : firsts) {
+            for (final Object atom : first.atoms) {
+                if (atom instanceof FirstSets.Range) {
+                    hasRanges = true;
+                    allChars &= ((FirstSets.Range) atom).chars;
+                    allInts &= !((FirstSets.Range) atom).chars;
+                } else {
+                    allChars &= atom instanceof Character;
+                    allInts &= atom instanceof Integer;
+                }
+            }
+        }
+
+        final SwitchPlan plan = new SwitchPlan();
+        if (allChars || allInts) {
+            final TreeMap<Integer, Integer> table = new TreeMap<>();
+            for (int i = 0; i < firsts.size(); ++i) {
+                for (final Object atom : firsts.get(i).atoms) {
+                    final int lo, hi;
+                    if (atom instanceof FirstSets.Range) {
+                        lo = ((FirstSets.Range) atom).lo;
+                        hi = ((FirstSets.Range) atom).hi;
+                    } else {
+                        lo = hi = atom instanceof Character ? (Character) atom : (Integer) atom;
+                    }
+                    if ((long) hi - lo >= MAX_DISPATCH_KEYS) return null;
+
+                    for (int k = lo; k <= hi; ++k) {
+                        final Integer prev = table.put(k, i);
+                        // Overlapping alternatives need to be tried in order
+                        if (prev != null && prev != i) return null;
+                    }
+                    if (table.size() > MAX_DISPATCH_KEYS) return null;
+                }
+            }
+            if (allChars) plan.chars = table;
+            else plan.ints = table;
+        }
+
+        if (!hasRanges) {
+            plan.consts = new LinkedHashMap<>();
+            for (int i = 0; i < firsts.size(); ++i) {
+                for (final Object atom : firsts.get(i).atoms) {
+                    final Integer prev = plan.consts.put(atom, i);
+                    if (prev != null && prev != i) return null;
+                }
+            }
+        }
+
+        return plan.chars == null && plan.ints == null && plan.consts == null ? null : plan;
+    }
+
+    private void switchOnKey(final int key, final TreeMap<Integer, Integer> table, final Label[] alts, final Label nomatch) {
+        final int[] keys = new int[table.size()];
+        final Label[] labels = new Label[keys.length];
+        int n = 0;
+        for (final Map.Entry<Integer, Integer> entry : table.entrySet()) {
+            keys[n] = entry.getKey();
+            labels[n++] = alts[entry.getValue()];
+        }
+
+        mv.visitVarInsn(ILOAD, key);
+        final int lo = keys[0];
+        final int hi = keys[keys.length - 1];
+        if ((long) hi - lo < 2L * keys.length + 8) {
+            // dense enough for a jump table, holes go to nomatch
+            final Label[] dense = new Label[hi - lo + 1];
+            for (int i = 0; i < dense.length; ++i) {
+                final Integer alt = table.get(lo + i);
+                dense[i] = alt == null ? nomatch : alts[alt];
+            }
+            mv.visitTableSwitchInsn(lo, hi, nomatch, dense);
+        } else {
+            mv.visitLookupSwitchInsn(nomatch, keys, labels);
+        }
+    }
+
+    private void switchOnConstant(final int obj, final Map<Object, Integer> consts, final Label[] alts, final Label nomatch) {
+        // Same as switching on strings: hashCode first, then equals
+        final TreeMap<Integer, List<Object>> buckets = new TreeMap<>();
+        for (final Object k : consts.keySet()) {
+            buckets.computeIfAbsent(k.hashCode(), h -> new ArrayList<>()).add(k);
+        }
+
+        final int[] keys = new int[buckets.size()];
+        final Label[] labels = new Label[keys.length];
+        int n = 0;
+        for (final Integer hash : buckets.keySet()) {
+            keys[n] = hash;
+            labels[n++] = new Label();
+        }
+
+        mv.visitVarInsn(ALOAD, obj);
+        mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "hashCode", "(Ljava/lang/Object;)I", false);
+        mv.visitLookupSwitchInsn(nomatch, keys, labels);
+
+        n = 0;
+        for (final List<Object> bucket : buckets.values()) {
+            mv.visitLabel(labels[n++]);
+            for (final Object k : bucket) {
+                mv.visitVarInsn(ALOAD, obj);
+                mv.visitLdcInsn(k instanceof Character ? (int) (Character) k : k);
+                if (k instanceof Character) {
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;", false);
+                } else if (k instanceof Integer) {
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+                } else if (k instanceof Double) {
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+                }
+                mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "equals", "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(IFNE, alts[consts.get(k)]);
+            }
+            mv.visitJumpInsn(GOTO, nomatch);
+        }
+    }
+
+    /**
+     * Jumps straight to the only alternative that can match the next
+     * element, or to nomatch if there is none. If the input cannot be
+     * peeked at in the way the plan needs, it jumps to the first
+     * alternative and every alternative is tried as usual.
+     */
+    private void dispatchRoutine(final SwitchPlan plan, final int dispatched, final Label[] alts, final Label nomatch) {
+        logMessage("FINER", "Dispatch on next element");
+
+        if (plan.chars != null || plan.ints != null) {
+            final int key = scope.pushNewLocal(VarType.NUM);
+            final Label next = new Label();
+            if (plan.chars != null) {
+                loadEvalState();
+                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "peekChar", "()I", false);
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(ISTORE, key);
+                mv.visitLdcInsn(-2);
+                mv.visitJumpInsn(IF_ICMPEQ, next);
+            } else {
+                loadEvalState();
+                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "canPeekInt", "()Z", false);
+                mv.visitJumpInsn(IFEQ, next);
+                loadEvalState();
+                mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "peekInt", "()I", false);
+                mv.visitVarInsn(ISTORE, key);
+            }
+            storeBool(dispatched, true);
+            switchOnKey(key, plan.chars != null ? plan.chars : plan.ints, alts, nomatch);
+            mv.visitLabel(next);
+            scope.popLocal();
+        }
+
+        if (plan.consts != null) {
+            final int obj = scope.pushNewLocal(VarType.OBJECT);
+            loadEvalState();
+            mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "peek", "()Ljava/lang/Object;", false);
+            mv.visitVarInsn(ASTORE, obj);
+            storeBool(dispatched, true);
+            switchOnConstant(obj, plan.consts, alts, nomatch);
+            scope.popLocal();
+        } else {
+            mv.visitJumpInsn(GOTO, alts[0]);
+        }
+    }
+
+    public void visitRuleSwitch(final List<ParseTree> alternatives) {
+        final List<ParseTree> rules = mergeSingleElementAlternatives(alternatives);
+        if (rules.size() == 1) {
+            // Only a set can be left, which is a single test
+            visit(rules.get(0));
+            return;
+        }
+
         final int ruleCount = rules.size();
         logMessage("FINE", "Switch clauses (" + ruleCount + " total):");
 
@@ -291,34 +673,41 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         final Label end = new Label();
         final int list = scope.findNearestLocal(VarType.LIST);
         final int rwnd = scope.pushNewLocal(VarType.NUM);
-
-        final int negateState = scope.pushNewLocal(VarType.BOOL);
-        loadEvalState();
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/ymcmp/rset/rt/EvalState", "getNegateFlag", "()Z", false);
-        mv.visitVarInsn(ISTORE, negateState);
+        final int pos = scope.pushNewLocal(VarType.NUM);
 
         /*
         ~(a | b) true when input is neither a nor b
         ~a | ~b  true when input is either not a or not b
 
         Explaination for generated code:
-        GENERALIZED_SWITCH_CLAUSE (boolean negateState, rule... init, rule last):
+        GENERALIZED_SWITCH_CLAUSE (rule... init, rule last):
+            if not negated and FIRST sets of rules are disjoint {
+                dispatched = true
+                switch next element {
+                    FIRST(rule) -> goto alt(rule)
+                    otherwise   -> goto nomatch
+                }
+            }
         $FOREACH rule in init
+        alt(rule):
             saveRoutine
             result = test rule
-            if negateState {
+            if negated {
                 if !result goto epilogue
             } else {
                 if result goto exit
             }
             unsaveRoutine
+            if dispatched goto nomatch
         $ENDFOR
 
+        alt(last):
             saveRoutine
             result = test ~last
             if result goto exit
         epilogue:
             unsaveRoutine
+        nomatch:
             result = false
             goto end
         exit:
@@ -326,26 +715,42 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         end:
         */
 
+        // Under negation every alternative is tried, so there is nothing to dispatch on
+        final SwitchPlan plan = ruleCount > 1 && !negated ? planSwitch(rules) : null;
+        final Label[] alts = new Label[ruleCount];
+        for (int i = 0; i < ruleCount; ++i) alts[i] = new Label();
+        final Label nomatch = new Label();
+
+        final int dispatched = scope.pushNewLocal(VarType.BOOL);
+        storeBool(dispatched, false);
+        if (plan != null) dispatchRoutine(plan, dispatched, alts, nomatch);
+
         for (int i = 0; i < ruleCount - 1; ++i) {
             logMessage("FINER", "Switch clause " + (i + 1) + " out of " + ruleCount + ":");
 
-            saveRoutine(list, rwnd);
+            mv.visitLabel(alts[i]);
+            saveRoutine(list, rwnd, pos);
             visit(rules.get(i));
 
-            ifBoolElse(negateState,
-                    () -> jumpIfBoolFalse(RESULT, epilogue),
-                    () -> jumpIfBoolTrue(RESULT, exit));
-            unsaveRoutine(list, rwnd);
+            if (negated) {
+                jumpIfBoolFalse(RESULT, epilogue);
+            } else {
+                jumpIfBoolTrue(RESULT, exit);
+            }
+            unsaveRoutine(list, rwnd, pos);
+            if (plan != null) jumpIfBoolTrue(dispatched, nomatch);
         };
 
         logMessage("FINER", "Switch clause " + ruleCount + " out of " + ruleCount + ":");
 
-        saveRoutine(list, rwnd);
+        mv.visitLabel(alts[ruleCount - 1]);
+        saveRoutine(list, rwnd, pos);
         visit(rules.get(ruleCount - 1));
 
         ifBoolFalse(RESULT, exit, () -> {
             mv.visitLabel(epilogue);
-            unsaveRoutine(list, rwnd);
+            unsaveRoutine(list, rwnd, pos);
+            mv.visitLabel(nomatch);
             storeBool(RESULT, false);
             mv.visitJumpInsn(GOTO, end);
         });
@@ -354,6 +759,7 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
 
         scope.popLocal();
         scope.popLocal();
+        scope.popLocal();
     }
 
     public void visitRuleGroup(final List<ParseTree> rules) {
@@ -365,13 +771,15 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         final int plst = scope.findNearestLocal(VarType.LIST);
         final int list = scope.pushNewLocal(VarType.LIST);
         final int rwnd = scope.pushNewLocal(VarType.NUM);
-        newObjectNoArgs(list, "java/util/ArrayList");
+        newParseStack(list);
         saveStack(plst, rwnd);
         for (int i = 0; i < ruleCount; ++i) {
             logMessage("FINER", "Group clause " + (i + 1) + " out of " + ruleCount + ":");
 
             visit(rules.get(i));
             jumpIfBoolFalse(RESULT, br0);
+            if (recognizer) continue;
+
             decSizeAndDup(plst);
             testIf(IF_ICMPLT, () -> {
                 mv.visitVarInsn(ALOAD, list);
@@ -397,12 +805,17 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         final Label exit = new Label();
         final String dest = n.dest.getText();
         final int plst = scope.findNearestLocal(VarType.LIST);
-        final int map = scope.findNearestLocal(VarType.MAP);
+        final int caps = scope.findNearestLocal(VarType.CAPTURES);
         logMessage("FINE", "Capturing next clause as " + dest);
 
         visit(n.rule);
-        mv.visitVarInsn(ALOAD, map);    // Setting up stack for map.put
-        mv.visitLdcInsn(dest);          // Setting up stack for map.put(dest
+        if (recognizer) return;
+
+        final int slot = captures.indexOf(dest);
+        if (slot < 0) throw new RuntimeException("No capture slot allocated for " + dest);
+
+        mv.visitVarInsn(ALOAD, caps);   // Setting up stack for caps[slot] =
+        mv.visitLdcInsn(slot);
 
         ifBoolTrue(RESULT, () -> {
             mv.visitVarInsn(ALOAD, plst);
@@ -416,41 +829,46 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
 
         mv.visitFieldInsn(GETSTATIC, "java/util/Collections", "EMPTY_LIST", "Ljava/util/List;");
         mv.visitLabel(exit);
-        mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", true);
-        mv.visitInsn(POP);
+        mv.visitInsn(AASTORE);
     }
 
     public void visitRulesetNode(final RulesetNode n) {
+        visitTest(n, n.makeTestName().get());
+    }
+
+    /**
+     * Generates the test method used when the rule is referenced under
+     * negation, every clause has the opposite polarity
+     */
+    public void visitNegatedRulesetNode(final RulesetNode n) {
+        negated = true;
+        try {
+            visitTest(n, n.makeNegatedTestName().get());
+        } finally {
+            negated = false;
+        }
+    }
+
+    private void visitTest(final RulesetNode n, final String testName) {
         final String name = n.name.getText();
-        final String testName = n.makeTestName().get();
-        mv = cw.visitMethod(ACC_PUBLIC, testName, "(Ljava/util/Map;Ljava/util/List;)Z", "(Ljava/util/Map<Ljava/lang/String;Ljava/lang/Object;>;Ljava/util/List<Ljava/lang/Object;>;)Z", null);
+        mv = cw.visitMethod(ACC_PUBLIC, testName, "(Lcom/ymcmp/rset/rt/EvalState;[Ljava/lang/Object;Ljava/util/List;)Z", "(Lcom/ymcmp/rset/rt/EvalState;[Ljava/lang/Object;Ljava/util/List<Ljava/lang/Object;>;)Z", null);
         mv.visitCode();
 
         scope.pushNewLocal(VarType.HIDDEN);  // this
-        final int env = scope.pushNewLocal(VarType.MAP);      // env
-        final int lst = scope.pushNewLocal(VarType.LIST);     // lst
-        final int map = scope.pushNewLocal(VarType.MAP);
+        scope.pushNewLocal(VarType.EVAL_STATE);  // state
+        scope.pushNewLocal(VarType.CAPTURES);    // caps, one slot per name in n.captures
+        scope.pushNewLocal(VarType.LIST);        // lst
         RESULT = scope.pushNewLocal(VarType.BOOL);
-
-        // Initialize objects
-        newObjectNoArgs(map, "java/util/HashMap");
+        captures = n.captures;
 
         logMessage("FINE", "Entering rule " + name);
 
         // Fill in the actual clauses here!
         visit(n.rule);
-        // if (env@1 != null) %additional
-        mv.visitVarInsn(ALOAD, env);
-        testIf(IFNULL, () -> {
-            // %additional -> env@1.putAll(captures@3)
-            mv.visitVarInsn(ALOAD, env);
-            mv.visitVarInsn(ALOAD, map);
-            mv.visitMethodInsn(INVOKEINTERFACE, "java/util/Map", "putAll", "(Ljava/util/Map;)V", true);
-        });
 
         logMessage("FINE", "Exiting rule " + name);
 
-        // return result@2
+        // return result@4
         mv.visitVarInsn(ILOAD, RESULT);
         mv.visitInsn(IRETURN);
 
@@ -463,4 +881,54 @@ public class BytecodeRuleVisitor extends BaseRuleVisitor {
         mv.visitMaxs(0, 0);
         mv.visitEnd();
     }
-}
\ No newline at end of file
+
+    /**
+     * Generates a method that matches the same input as the test method, but
+     * only moves the position. Nothing is allocated for the parse stack or
+     * the captures and subrules are recognized instead of being evaluated.
+     */
+    public void visitRecognizer(final RulesetNode n) {
+        visitRecognizer(n, n.makeRecogName().get());
+    }
+
+    public void visitNegatedRecognizer(final RulesetNode n) {
+        negated = true;
+        try {
+            visitRecognizer(n, n.makeNegatedRecogName().get());
+        } finally {
+            negated = false;
+        }
+    }
+
+    private void visitRecognizer(final RulesetNode n, final String recogName) {
+        final String name = n.name.getText();
+        mv = cw.visitMethod(ACC_PUBLIC, recogName, "(Lcom/ymcmp/rset/rt/EvalState;)Z", null, null);
+        mv.visitCode();
+
+        scope.pushNewLocal(VarType.HIDDEN);  // this
+        scope.pushNewLocal(VarType.EVAL_STATE);  // state
+        RESULT = scope.pushNewLocal(VarType.BOOL);
+
+        logMessage("FINE", "Entering recognizer of rule " + name);
+
+        recognizer = true;
+        try {
+            visit(n.rule);
+        } finally {
+            recognizer = false;
+        }
+
+        logMessage("FINE", "Exiting recognizer of rule " + name);
+
+        // return result@2
+        mv.visitVarInsn(ILOAD, RESULT);
+        mv.visitInsn(IRETURN);
+
+        scope.popLocal();
+        scope.popLocal();
+        scope.popLocal();
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.visitor;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import com.ymcmp.rset.Type;
+
+import com.ymcmp.rset.tree.*;
+
+import com.ymcmp.lexparse.tree.ParseTree;
+
+/**
+ * Computes which input elements a clause can start with. A clause can only
+ * succeed (without negation) if the next element is one of them, or if the
+ * clause is nullable.
+ *
+ * Elements are Characters, Integers, Strings and Doubles (compared with
+ * equals) or Ranges. Clauses whose first element cannot be described this
+ * way (wildcards, negation, destructuring and so on) have an unknown set.
+ */
+/* package */ final class FirstSets {
+
+    public static final class Range {
+
+        public final boolean chars;
+        public final int lo;
+        public final int hi;
+
+        public Range(boolean chars, int a, int b) {
+            this.chars = chars;
+            this.lo = Math.min(a, b);
+            this.hi = Math.max(a, b);
+        }
+    }
+
+    public static final class Result {
+
+        public static final Result UNKNOWN = new Result(null, false);
+        public static final Result EMPTY = new Result(Collections.emptyList(), true);
+
+        // null if unknown
+        public final List<Object> atoms;
+        public final boolean nullable;
+
+        public Result(List<Object> atoms, boolean nullable) {
+            this.atoms = atoms;
+            this.nullable = nullable;
+        }
+
+        public boolean isKnown() {
+            return atoms != null;
+        }
+    }
+
+    private final Map<String, RulesetNode> defs;
+    private final Map<String, Result> cache = new HashMap<>();
+    private final Set<String> visiting = new HashSet<>();
+
+    public FirstSets(Map<String, RulesetNode> defs) {
+        this.defs = defs;
+    }
+
+    /**
+     * @param subst the substitution variables in scope of the clause
+     */
+    public Result of(final ParseTree tree, final List<ParseTree> subst) {
+        if (tree instanceof ValueNode) return ofValue((ValueNode) tree);
+        if (tree instanceof CaptureRule) return of(((CaptureRule) tree).rule, subst);
+        if (tree instanceof RefRule) return ofRef((RefRule) tree, subst);
+        if (tree instanceof UnaryRule) return ofUnary((UnaryRule) tree, subst);
+        if (tree instanceof BinaryRule) return ofRange((BinaryRule) tree);
+        if (tree instanceof SetRule) return ofSet((SetRule) tree);
+        if (tree instanceof KaryRule) {
+            final KaryRule rule = (KaryRule) tree;
+            switch (rule.type) {
+                case SEQ:
+                case GROUP:
+                    return ofSequence(rule.rules, subst);
+                case SWITCH:
+                    return ofSwitch(rule.rules, subst);
+                default:
+                    break;
+            }
+        }
+        return Result.UNKNOWN;
+    }
+
+    private static Result ofValue(final ValueNode node) {
+        switch (node.token.type) {
+            case L_CHARS: {
+                final String str = node.toObject().toString();
+                if (str.isEmpty()) return Result.EMPTY;
+                return new Result(Collections.singletonList(str.charAt(0)), false);
+            }
+            case L_INT:
+            case L_REAL:
+            case L_IDENT:
+                return new Result(Collections.singletonList(node.toObject()), false);
+            default:
+                // wildcards, end of data and null
+                return Result.UNKNOWN;
+        }
+    }
+
+    private static Result ofRange(final BinaryRule rule) {
+        if (rule.op.type != Type.S_MN) return Result.UNKNOWN;
+
+        final ValueNode node1 = (ValueNode) rule.rule1;
+        final ValueNode node2 = (ValueNode) rule.rule2;
+        final Type type1 = node1.token.type;
+        final Type type2 = node2.token.type;
+        if (type1 == Type.L_CHARS && type2 == Type.L_CHARS) {
+            final String a = node1.toObject().toString();
+            final String b = node2.toObject().toString();
+            // Invalid ranges are reported by the code generator
+            if (a.length() != 1 || b.length() != 1) return Result.UNKNOWN;
+            return new Result(Collections.singletonList(new Range(true, a.charAt(0), b.charAt(0))), false);
+        }
+        if (type1 == Type.L_INT && type2 == Type.L_INT) {
+            final Range range = new Range(false, (Integer) node1.toObject(), (Integer) node2.toObject());
+            return new Result(Collections.singletonList(range), false);
+        }
+        return Result.UNKNOWN;
+    }
+
+    private static Result ofSet(final SetRule rule) {
+        final List<Object> atoms = new ArrayList<>();
+        for (final int v : rule.values) atoms.add(rule.chars ? (Object) (char) v : (Object) v);
+        for (int i = 0; i < rule.spans.length; i += 2) {
+            atoms.add(new Range(rule.chars, rule.spans[i], rule.spans[i + 1]));
+        }
+        return new Result(atoms, false);
+    }
+
+    private Result ofUnary(final UnaryRule rule, final List<ParseTree> subst) {
+        switch (rule.op.type) {
+            case S_QM:
+            case S_ST: {
+                final Result inner = of(rule.rule, subst);
+                return inner.isKnown() ? new Result(inner.atoms, true) : inner;
+            }
+            case S_AD:
+                return of(rule.rule, subst);
+            default:
+                return Result.UNKNOWN;
+        }
+    }
+
+    private Result ofRef(final RefRule rule, final List<ParseTree> subst) {
+        final String name = rule.node.getText();
+        try {
+            final int i = Integer.parseInt(name);
+            // Same as the code generator, which keeps the substitution variables
+            if (subst == null || i >= subst.size()) return Result.UNKNOWN;
+            return of(subst.get(i), subst);
+        } catch (NumberFormatException ex) {
+            final RulesetNode def = defs.get(name);
+            if (def == null || !visiting.add(name)) return Result.UNKNOWN;
+
+            final boolean cacheable = rule.subst == null || rule.subst.isEmpty();
+            Result result = cacheable ? cache.get(name) : null;
+            if (result == null) {
+                result = of(def.rule, rule.subst);
+                if (cacheable) cache.put(name, result);
+            }
+            visiting.remove(name);
+            return result;
+        }
+    }
+
+    private Result ofSequence(final List<ParseTree> rules, final List<ParseTree> subst) {
+        final List<Object> atoms = new ArrayList<>();
+        for (final ParseTree rule : rules) {
+            final Result result = of(rule, subst);
+            if (!result.isKnown()) return Result.UNKNOWN;
+
+            atoms.addAll(result.atoms);
+            if (!result.nullable) return new Result(atoms, false);
+        }
+        return new Result(atoms, true);
+    }
+
+    private Result ofSwitch(final List<ParseTree> rules, final List<ParseTree> subst) {
+        final List<Object> atoms = new ArrayList<>();
+        boolean nullable = false;
+        for (final ParseTree rule : rules) {
+            final Result result = of(rule, subst);
+            if (!result.isKnown()) return Result.UNKNOWN;
+
+            atoms.addAll(result.atoms);
+            nullable |= result.nullable;
+        }
+        return new Result(atoms, nullable);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.Arrays;
+
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class ArithmeticTest {
+
+    private static Class<?> Arith;
+    private static byte[] bytes;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "rule nested = %a { 2 * 3 - 1 / 4 }," +
+            "rule whole = %a { 2.5 * 2 }," +
+            "rule overflow = %a { 2147483647 + 1 }," +
+            "rule nan = %a { 5 % 0 }," +
+            "rule count = k:(%a*) { n = 0; ?k { n = ?n + 1 }; ?n }," +
+            "rule sum = k:(%a*) { s = 0; ?k { s = ?s + 0.1 }; ?s }," +
+            "rule chain = %a { a = b = 1 + 1; c = ?a * ?b; ?_array ?a ?b ?c }," +
+            "rule real = %a { x = 1.0; ?x }," +
+            "rule mixed = k:(%a*) { x = 1; x = ?k; ?x }," +
+            "rule maybe = k:(%a*) { (?k & (x = 1)); ?x }," +
+            "rule negzero = %a { 1 / (0 * (0 - 1)) }," +
+            "rule negvar = %a { x = 0 * (0 - 1); 1 / ?x }," +
+            "rule negloop = k:(%a*) { x = 0; ?k { x = ?x * (0 - 1) }; 1 / ?x }," +
+            "rule negcall = %a { ?_div 1 (0 * (0 - 1)) },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        bytes = parser.parse().toBytecode("Arith", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Arith = bcl.loadFromBytes("Arith", bytes);
+    }
+
+    public static Rulesets newArith() {
+        try {
+            return (Rulesets) Arith.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Test
+    public void testBoxedOnce() {
+        // Both boxes come from the outermost operation
+        assertEquals(2, BytecodeInspector.countCalls(bytes, "actnested", null, "valueOf"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, "actnested", null, "doubleValue"));
+        // The accumulator is boxed when it is read at the end
+        assertEquals(2, BytecodeInspector.countCalls(bytes, "actcount", null, "valueOf"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, "actcount", null, "put"));
+    }
+
+    @Test
+    public void testResults() {
+        final Rulesets rsets = newArith();
+        assertEquals(5.75, rsets.getRule("nested").apply("a"));
+        assertEquals(5, rsets.getRule("whole").apply("a"));
+        assertEquals(2147483648.0, rsets.getRule("overflow").apply("a"));
+        assertEquals(Double.NaN, rsets.getRule("nan").apply("a"));
+    }
+
+    @Test
+    public void testNumericVariables() {
+        final Rulesets rsets = newArith();
+        assertEquals(0, rsets.getRule("count").apply(""));
+        assertEquals(3, rsets.getRule("count").apply("aaa"));
+        assertEquals(0, rsets.getRule("sum").apply(""));
+        assertEquals(0.1 + 0.1 + 0.1, rsets.getRule("sum").apply("aaa"));
+        assertEquals(Arrays.asList(2, 2, 4), rsets.getRule("chain").apply("a"));
+    }
+
+    @Test
+    public void testOtherVariables() {
+        final Rulesets rsets = newArith();
+        // Boxing 1.0 as a number would give 1
+        assertEquals(1.0, rsets.getRule("real").apply("a"));
+        assertEquals(Arrays.asList(Arrays.asList('a')), rsets.getRule("mixed").apply("a"));
+        assertNull(rsets.getRule("maybe").apply(""));
+        assertEquals(1, rsets.getRule("maybe").apply("a"));
+    }
+
+    @Test
+    public void testNegativeZero() {
+        // Boxing -0.0 as a number gives 0, nested results behave as if boxed
+        final Rulesets rsets = newArith();
+        assertEquals(Double.POSITIVE_INFINITY, rsets.getRule("negzero").apply("a"));
+        assertEquals(Double.POSITIVE_INFINITY, rsets.getRule("negvar").apply("a"));
+        assertEquals(Double.POSITIVE_INFINITY, rsets.getRule("negloop").apply("aaa"));
+        assertEquals(Double.POSITIVE_INFINITY, rsets.getRule("negcall").apply("a"));
+    }
+}
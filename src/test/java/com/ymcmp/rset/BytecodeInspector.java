@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.util.Set;
+import java.util.HashSet;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Counts instructions in the methods of a generated class. Only meant for
+ * the optimizations that do not change what the rules return.
+ */
+public final class BytecodeInspector {
+
+    private BytecodeInspector() {
+    }
+
+    public static Set<String> methodNames(final byte[] bytes) {
+        final Set<String> names = new HashSet<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] ex) {
+                names.add(name);
+                return null;
+            }
+        }, 0);
+        return names;
+    }
+
+    public static int countCalls(final byte[] bytes, final String method, final String owner, final String name) {
+        return countCalls(bytes, method::equals, owner, name);
+    }
+
+    /**
+     * @param owner the internal name of the class declaring the callee, null for any
+     * @param name the name of the callee, null for any
+     */
+    public static int countCalls(final byte[] bytes, final Predicate<String> methods, final String owner, final String name) {
+        return count(bytes, methods, count -> new MethodVisitor(Opcodes.ASM6) {
+            @Override
+            public void visitMethodInsn(int opcode, String o, String n, String desc, boolean itf) {
+                if ((owner == null || owner.equals(o)) && (name == null || name.equals(n))) ++count[0];
+            }
+        });
+    }
+
+    /**
+     * @param type the internal name of the class, null for any
+     */
+    public static int countNews(final byte[] bytes, final Predicate<String> methods, final String type) {
+        return count(bytes, methods, count -> new MethodVisitor(Opcodes.ASM6) {
+            @Override
+            public void visitTypeInsn(int opcode, String t) {
+                if (opcode == Opcodes.NEW && (type == null || type.equals(t))) ++count[0];
+            }
+        });
+    }
+
+    public static int countSwitches(final byte[] bytes, final String method) {
+        return count(bytes, method::equals, count -> new MethodVisitor(Opcodes.ASM6) {
+            @Override
+            public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                ++count[0];
+            }
+
+            @Override
+            public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                ++count[0];
+            }
+        });
+    }
+
+    private static int count(final byte[] bytes, final Predicate<String> methods, final Function<int[], MethodVisitor> counter) {
+        final int[] count = new int[1];
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] ex) {
+                return methods.test(name) ? counter.apply(count) : null;
+            }
+        }, 0);
+        return count[0];
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class CaptureSlotsTest {
+
+    private static Class<?> Slots;
+    private static byte[] bytes;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "fragment f = c:%x," +
+            "rule frag = &f k:%y { ?_concat ?c ?k }," +
+            "rule assign = k:%a { k = 5; ?k }," +
+            "rule unset = (k:%a | %b) { ?k }," +
+            "rule export = (_concat:%a | %b) { ?_concat }," +
+            "rule dynamic = k:%a { ?(?_concat 'k') }," +
+            "rule dynassign = k:%a { (?_concat 'k') = 7; ?k }," +
+            "rule loop = _it:%a m:(%b*) { ?m { x = ?_it }; ?_concat ?_it ?x }," +
+            "rule retry = (k:%a %b | k:%a %c | %a) { ?k }," +
+            "subrule sub = k:%a { ?k }," +
+            "rule outer = v:&sub k:%b { ?_concat ?v ?k }," +
+            "rule before = %a { y = ?_concat; _concat = 5; ?_concat ~ ?y }," +
+            "rule count = m:(%a*) { n = 0; ?m { n = ?n + 1 }; ?n ~ ?_it },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        bytes = parser.parse().toBytecode("Slots", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Slots = bcl.loadFromBytes("Slots", bytes);
+    }
+
+    public static Rulesets newSlots() {
+        try {
+            return (Rulesets) Slots.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Test
+    public void testNoMaps() {
+        assertEquals(0, BytecodeInspector.countNews(bytes, name -> name.startsWith("test"), "java/util/HashMap"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, name -> name.startsWith("test"), "java/util/Map", null));
+        // Only actdynamic and actdynassign look names up at runtime
+        assertEquals(0, BytecodeInspector.countCalls(bytes,
+                name -> name.startsWith("act") && !name.equals("actdynamic") && !name.equals("actdynassign"),
+                "java/util/Map", "put"));
+    }
+
+    @Test
+    public void testFragmentCaptures() {
+        final Rule frag = newSlots().getRule("frag");
+        assertEquals("xy", frag.apply("xy"));
+        assertNull(frag.apply("y"));
+    }
+
+    @Test
+    public void testAssignments() {
+        final Rulesets rsets = newSlots();
+        assertEquals(5, rsets.getRule("assign").apply("a"));
+        assertEquals(7, rsets.getRule("dynassign").apply("a"));
+    }
+
+    @Test
+    public void testUnsetCaptures() {
+        final Rulesets rsets = newSlots();
+        assertEquals(Arrays.asList('a'), rsets.getRule("unset").apply("a"));
+        assertNull(rsets.getRule("unset").apply("b"));
+
+        // Falls back to the export of the same name
+        assertEquals(Arrays.asList('a'), rsets.getRule("export").apply("a"));
+        assertTrue(rsets.getRule("export").apply("b") instanceof Function);
+    }
+
+    @Test
+    public void testDynamicNames() {
+        assertEquals(Arrays.asList('a'), newSlots().getRule("dynamic").apply("a"));
+    }
+
+    @Test
+    public void testLoopVariable() {
+        final Rule loop = newSlots().getRule("loop");
+        assertEquals("bb", loop.apply("abb"));
+        assertEquals("anull", loop.apply("a"));
+    }
+
+    @Test
+    public void testLocalVariables() {
+        final Rulesets rsets = newSlots();
+        assertEquals("3a", rsets.getRule("count").apply("aaa"));
+        assertEquals("0null", rsets.getRule("count").apply(""));
+
+        // Reads before the first assignment still see the export
+        final String before = (String) rsets.getRule("before").apply("a");
+        assertTrue(before, before.startsWith("5<function "));
+    }
+
+    @Test
+    public void testLastCaptureWins() {
+        final Rule retry = newSlots().getRule("retry");
+        assertEquals(Arrays.asList('a'), retry.apply("ab"));
+        assertEquals(Arrays.asList('a'), retry.apply("ac"));
+        assertEquals(Arrays.asList('a'), retry.apply("a"));
+    }
+
+    @Test
+    public void testSubruleCaptures() {
+        final Rule outer = newSlots().getRule("outer");
+        assertEquals("ab", outer.apply("ab"));
+        assertNull(outer.apply("b"));
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 50;
+
+    private static Class<?> Concurrency;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "fragment ws = (%' '|%'\t')*," +
+            "rule number = a:(%'+'|%'-')? &ws b:(%0|%1-%9(%0-%9)*) { (?_float?a~?b):0 }," +
+            "rule basic = n:&number | %'(' &ws e:&expr &ws %')' { ?e|?n }," +
+            "rule mul = head:&basic tail:((&ws (%'*'|%'/') &ws &basic)*) {" +
+            "    ret = ?head;" +
+            "    ?tail {" +
+            "        p = ?_it:1;" +
+            "        t = ?_it:3;" +
+            "        ret = ((?_eqls '*' ?p~) & ?ret * ?t, | ?ret / ?t,):0" +
+            "    };" +
+            "    ?ret" +
+            "}," +
+            "rule add = head:&mul tail:((&ws(%'+'|%'-')&ws&mul)*) {" +
+            "    ret=?head;?tail{t=?_it:3;ret=((?_eqls'+'?_it:1~)&?ret+?t,|?ret-?t,):0};?ret" +
+            "}," +
+            "rule expr = k:&add { ?k }," +
+            "rule list = [k:(1-9+)] { ?k },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        final byte[] bytes = parser.parse().toBytecode("Concurrency", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        final Class<?> cl = bcl.loadFromBytes("Concurrency", bytes);
+        if (Rulesets.class.isAssignableFrom(cl)) {
+            Concurrency = cl;
+        } else {
+            throw new RuntimeException("This should not happen, generated classes must inherit Rulesets");
+        }
+    }
+
+    public static Rulesets newConcurrency() {
+        try {
+            return (Rulesets) Concurrency.getConstructor().newInstance();
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Character[] strToCharArray(String str) {
+        if (str == null || str.isEmpty()) return new Character[0];
+        return str.chars().mapToObj(e -> (char) e).toArray(Character[]::new);
+    }
+
+    private static final Object[][] EXPR_TESTS = {
+        strToCharArray("2 * 3 + 4"),
+        strToCharArray("1 + 2 * 3 - 0"),
+        strToCharArray("1 + -2 + 3 + -4"),
+        strToCharArray("1 * 2 * 3 * 4 / 5 * 5 "),
+        strToCharArray("(1 + 2) * (3 + 4) / 7"),
+        strToCharArray("((((9))))"),
+        strToCharArray("8 / (2 * (1 + 1))"),
+        strToCharArray("not an expression"),
+    };
+
+    private static final Object[][] LIST_TESTS = {
+        { new int[] { 1, 2, 3 } },
+        { Arrays.asList(4, 5, 6, 7) },
+        { new Object[] { 8, 0 } },
+        { new int[0] },
+    };
+
+    private static List<String> runAll(final Rulesets rsets) {
+        final List<String> results = new ArrayList<>();
+        for (final Object[] test : EXPR_TESTS) {
+            results.add(String.valueOf(rsets.getRule("expr").apply(test)));
+        }
+        for (final Object[] test : LIST_TESTS) {
+            results.add(String.valueOf(rsets.getRule("list").apply(test)));
+        }
+        return results;
+    }
+
+    @Test
+    public void sharedInstanceMatchesSingleThreadedResults() throws Exception {
+        final List<String> expected = runAll(newConcurrency());
+        assertEquals("10", expected.get(0));
+        assertEquals("3", expected.get(4));
+        assertEquals("null", expected.get(7));
+
+        final Rulesets shared = newConcurrency();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; ++i) {
+                futures.add(pool.submit((Callable<List<String>>) () -> {
+                    start.await();
+                    List<String> last = null;
+                    for (int j = 0; j < ROUNDS; ++j) {
+                        final List<String> now = runAll(shared);
+                        if (last != null && !last.equals(now)) return now;
+                        last = now;
+                    }
+                    return last;
+                }));
+            }
+
+            // Release all threads at once to maximize interleaving
+            start.countDown();
+            for (final Future<List<String>> f : futures) {
+                assertEquals(expected, f.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.Arrays;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class ConstantsTest {
+
+    private static Class<?> Consts;
+    private static byte[] bytes;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "rule chars  = ; { %abc },\n" +
+            "rule nums   = ; { (1, 2.5, 1, 1000) },\n" +
+            "rule range  = k:(%a-10) { ?k },\n" +
+            "rule child  = k:<\"java.lang.Number\" { ?k },\n" +
+            "rule parent = k:>\"java.lang.Integer\" { ?k },\n" +
+            "rule array  = k:<\"[I\" { ?k },\n" +
+            "rule nosuch = k:<\"no.such.Klass\" { ?k },\n"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        bytes = parser.parse().toBytecode("Consts", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Consts = bcl.loadFromBytes("Consts", bytes);
+    }
+
+    public static Rulesets newConsts() {
+        try {
+            return (Rulesets) Consts.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static int countOutsideClinit(final String owner, final String callee) {
+        return BytecodeInspector.countCalls(bytes, name -> !name.equals("<clinit>"), owner, callee);
+    }
+
+    @Test
+    public void testNothingIsCreatedOutsideClinit() {
+        assertEquals(0, countOutsideClinit("java/lang/Integer", "valueOf"));
+        assertEquals(0, countOutsideClinit("java/lang/Double", "valueOf"));
+        assertEquals(0, countOutsideClinit("java/lang/Character", "valueOf"));
+        assertEquals(0, countOutsideClinit("java/lang/String", "toCharArray"));
+        // Only the array class name is left, once in the rule and once in its recognizer
+        assertEquals(2, countOutsideClinit("java/lang/Class", "forName"));
+    }
+
+    @Test
+    public void testValues() {
+        final Rulesets rsets = newConsts();
+        assertArrayEquals(new char[]{ 'a', 'b', 'c' }, (char[]) rsets.getRule("chars").apply(new Object[0]));
+        assertArrayEquals(new Object[]{ 1, 2.5, 1, 1000 }, (Object[]) rsets.getRule("nums").apply(new Object[0]));
+        // Equal literals share the same box
+        final Object[] nums = (Object[]) rsets.getRule("nums").apply(new Object[0]);
+        assertSame(nums[0], nums[2]);
+    }
+
+    @Test
+    public void testCharsAreNotShared() {
+        final Rule chars = newConsts().getRule("chars");
+        final char[] first = (char[]) chars.apply(new Object[0]);
+        first[0] = 'X';
+        assertArrayEquals(new char[]{ 'a', 'b', 'c' }, (char[]) chars.apply(new Object[0]));
+        assertArrayEquals(new char[]{ 'a', 'b', 'c' }, (char[]) newConsts().getRule("chars").apply(new Object[0]));
+    }
+
+    @Test
+    public void testMixedRange() {
+        final Rule range = newConsts().getRule("range");
+        assertNull(range.apply(new Object[]{ 'b' }));
+        assertNull(range.apply(new Object[]{ 5 }));
+    }
+
+    @Test
+    public void testClasses() {
+        final Rulesets rsets = newConsts();
+        assertEquals(10, rsets.getRule("child").apply(new Object[]{ 10 }));
+        assertNull(rsets.getRule("child").apply(new Object[]{ "10" }));
+        assertEquals(10, rsets.getRule("parent").apply(new Object[]{ 10 }));
+        assertNull(rsets.getRule("parent").apply(new Object[]{ 10L }));
+
+        final int[] arr = { 1 };
+        assertSame(arr, rsets.getRule("array").apply(new Object[]{ arr }));
+    }
+
+    @Test
+    public void testMissingClass() {
+        try {
+            newConsts().getRule("nosuch").apply(new Object[]{ 10 });
+            fail("Class no.such.Klass should not be found");
+        } catch (NoClassDefFoundError ex) {
+            // Resolving the class constant failed
+        }
+    }
+}
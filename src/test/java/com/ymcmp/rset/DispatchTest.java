@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.Arrays;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class DispatchTest {
+
+    private static Class<?> Dispatch;
+    private static byte[] bytes;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "fragment digit = %0-%9," +
+            "rule kw = k:(%if | %else | %while | %for | %return | %break) { ?k }," +
+            "rule op = (%'+' | %'-' | %'*' | %'/' | &digit+) { 'ok' }," +
+            "rule same = k:(%ab | %ac) { ?k }," +
+            "rule opt = k:(%a? %b | %c) { ?k }," +
+            "rule empty = k:(%a? | %c) { ?k }," +
+            "rule neg = k:~(%a | %b) { ?k }," +
+            "rule nums = (1-3 0 | 4 | 5-9 1) { 'ok' }," +
+            "rule words = k:(abc | def | 1.5 | 2) { ?k }," +
+            "rule nested = (%a (%x | %y) | %b (%x | %z)) { 'ok' },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        bytes = parser.parse().toBytecode("Dispatch", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Dispatch = bcl.loadFromBytes("Dispatch", bytes);
+    }
+
+    public static Rulesets newDispatch() {
+        try {
+            return (Rulesets) Dispatch.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Test
+    public void testDispatchIsGenerated() {
+        assertTrue(BytecodeInspector.countSwitches(bytes, "testkw") > 0);
+        assertTrue(BytecodeInspector.countSwitches(bytes, "testop") > 0);
+        assertTrue(BytecodeInspector.countSwitches(bytes, "testnums") > 0);
+        assertTrue(BytecodeInspector.countSwitches(bytes, "testwords") > 0);
+        // %a? %b starts with either a or b
+        assertTrue(BytecodeInspector.countSwitches(bytes, "testopt") > 0);
+        // Alternatives that share a FIRST element or are nullable are tried in order
+        assertEquals(0, BytecodeInspector.countSwitches(bytes, "testsame"));
+        assertEquals(0, BytecodeInspector.countSwitches(bytes, "testempty"));
+    }
+
+    @Test
+    public void testKeywords() {
+        final Rule kw = newDispatch().getRule("kw");
+        assertEquals(Arrays.asList('w', 'h', 'i', 'l', 'e'), kw.apply("while"));
+        assertEquals(Arrays.asList('r', 'e', 't', 'u', 'r', 'n'), kw.apply("return"));
+        assertEquals(Arrays.asList('i', 'f'), kw.apply("if"));
+        assertNull(kw.apply("whale"));
+        assertNull(kw.apply("x"));
+        assertNull(kw.apply(""));
+        // Boxed chars go through the constant dispatch
+        assertEquals(Arrays.asList('f', 'o', 'r'), kw.apply(new Object[]{ 'f', 'o', 'r' }));
+        assertNull(kw.apply(new Object[]{ "for" }));
+    }
+
+    @Test
+    public void testRangesAndFragments() {
+        final Rule op = newDispatch().getRule("op");
+        assertEquals("ok", op.apply("+"));
+        assertEquals("ok", op.apply("/"));
+        assertEquals("ok", op.apply("42"));
+        assertNull(op.apply("a"));
+        // Ranges compare numerically on boxed input, so these are tried in order
+        assertEquals("ok", op.apply(new Object[]{ '7' }));
+    }
+
+    @Test
+    public void testNotDispatched() {
+        final Rulesets rsets = newDispatch();
+        assertEquals(Arrays.asList('a', 'c'), rsets.getRule("same").apply("ac"));
+        assertNotNull(rsets.getRule("empty").apply("x"));
+        assertNotNull(rsets.getRule("empty").apply("c"));
+    }
+
+    @Test
+    public void testNullablePrefix() {
+        final Rule opt = newDispatch().getRule("opt");
+        assertNotNull(opt.apply("b"));
+        assertNotNull(opt.apply("ab"));
+        assertNotNull(opt.apply("c"));
+        assertNull(opt.apply("a"));
+        assertNull(opt.apply("ac"));
+    }
+
+    @Test
+    public void testNegated() {
+        final Rule neg = newDispatch().getRule("neg");
+        assertNotNull(neg.apply("c"));
+        assertNull(neg.apply("a"));
+        assertNull(neg.apply("b"));
+    }
+
+    @Test
+    public void testInts() {
+        final Rule nums = newDispatch().getRule("nums");
+        assertEquals("ok", nums.apply(new int[]{ 2, 0 }));
+        assertEquals("ok", nums.apply(new int[]{ 4 }));
+        assertEquals("ok", nums.apply(new int[]{ 9, 1 }));
+        assertNull(nums.apply(new int[]{ 9, 0 }));
+        assertNull(nums.apply(new int[]{ 0 }));
+        assertNull(nums.apply(new int[0]));
+        // Boxed input is tried in order since ranges compare numerically
+        assertEquals("ok", nums.apply(new Object[]{ 2.5, 0 }));
+        assertNull(nums.apply(new Object[]{ 10 }));
+    }
+
+    @Test
+    public void testConstants() {
+        final Rule words = newDispatch().getRule("words");
+        assertEquals("def", words.apply(new Object[]{ "def" }));
+        assertEquals(1.5, words.apply(new Object[]{ 1.5 }));
+        assertEquals(2, words.apply(new int[]{ 2 }));
+        assertNull(words.apply(new Object[]{ 2.0 }));
+        assertNull(words.apply(new Object[]{ "xyz" }));
+        assertNull(words.apply(new Object[]{ null }));
+        assertNull(words.apply("a"));
+    }
+
+    @Test
+    public void testNested() {
+        final Rule nested = newDispatch().getRule("nested");
+        assertEquals("ok", nested.apply("ax"));
+        assertEquals("ok", nested.apply("bz"));
+        assertNull(nested.apply("az"));
+        assertNull(nested.apply("by"));
+    }
+}
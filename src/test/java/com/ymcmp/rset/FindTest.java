@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.List;
+import java.util.Arrays;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Match;
+import com.ymcmp.rset.rt.Rulesets;
+import com.ymcmp.rset.rt.InputSource;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class FindTest {
+
+    private static Class<?> Find;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "fragment hd = %he," +
+            "rule call = %call %'(' (%a-%z)+ %')' { 'call' }," +
+            "rule kw = %if | %in { 'kw' }," +
+            "rule greet = &hd %llo { 'hi' }," +
+            "rule num = (%0-%9)+ { 'num' }," +
+            "rule xs = %x* { 'xs' }," +
+            "rule one = 1 2 { 'one' },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        final byte[] bytes = parser.parse().toBytecode("Find", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Find = bcl.loadFromBytes("Find", bytes);
+    }
+
+    public static Rulesets newFind() {
+        try {
+            return (Rulesets) Find.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void assertMatch(int start, int end, Object value, Match m) {
+        assertNotNull(m);
+        assertEquals(start, m.getStart());
+        assertEquals(end, m.getEnd());
+        assertEquals(value, m.getValue());
+    }
+
+    @Test
+    public void testLiteralPrefixes() {
+        final Rulesets rsets = newFind();
+        assertEquals("call(", rsets.getRule("call").getLiteralPrefix());
+        assertEquals("i", rsets.getRule("kw").getLiteralPrefix());
+        assertEquals("hello", rsets.getRule("greet").getLiteralPrefix());
+        assertEquals("", rsets.getRule("num").getLiteralPrefix());
+        assertEquals("", rsets.getRule("xs").getLiteralPrefix());
+    }
+
+    @Test
+    public void testFind() {
+        final Rule call = newFind().getRule("call");
+        assertMatch(8, 17, "call", call.find("a call; call(abc) call(d)"));
+        assertNull(call.find("no calls in here"));
+        assertMatch(18, 25, "call", call.find(InputSource.of("a call; call(abc) call(d)"), 10));
+
+        // Still anchored when applied
+        assertNull(call.apply("x call(a)"));
+        assertEquals("call", call.apply("call(a)"));
+    }
+
+    @Test
+    public void testFindAll() {
+        final Rule kw = newFind().getRule("kw");
+        final List<Match> list = kw.findAll("if x in ifin");
+        assertEquals(4, list.size());
+        assertMatch(0, 2, "kw", list.get(0));
+        assertMatch(5, 7, "kw", list.get(1));
+        assertMatch(8, 10, "kw", list.get(2));
+        assertMatch(10, 12, "kw", list.get(3));
+
+        final List<Match> nums = newFind().getRule("num").findAll("a12b345");
+        assertEquals(2, nums.size());
+        assertMatch(1, 3, "num", nums.get(0));
+        assertMatch(4, 7, "num", nums.get(1));
+    }
+
+    @Test
+    public void testFindAllEmptyMatches() {
+        final List<Match> list = newFind().getRule("xs").findAll("axxb");
+        assertEquals(4, list.size());
+        assertMatch(0, 0, "xs", list.get(0));
+        assertMatch(1, 3, "xs", list.get(1));
+        assertMatch(3, 3, "xs", list.get(2));
+        assertMatch(4, 4, "xs", list.get(3));
+    }
+
+    @Test
+    public void testFindThroughFragment() {
+        final Rule greet = newFind().getRule("greet");
+        assertMatch(6, 11, "hi", greet.find("hell, hello"));
+        assertNull(greet.find("hell"));
+    }
+
+    @Test
+    public void testFindObjects() {
+        final Rule one = newFind().getRule("one");
+        assertMatch(2, 4, "one", one.find(InputSource.of(2, 1, 1, 2, 1), 0));
+        assertMatch(3, 5, "one", one.find(InputSource.of(new int[]{ 2, 1, 3, 1, 2 }), 0));
+        assertNull(one.find(InputSource.of(Arrays.asList(2, 1)), 0));
+    }
+
+    @Test
+    public void testFindStreaming() {
+        final Rule call = newFind().getRule("call");
+        final List<Match> list = call.findAll(InputSource.of(new StringReader("call(a) x call(bc)")), 0);
+        assertEquals(2, list.size());
+        assertMatch(0, 7, "call", list.get(0));
+        assertMatch(10, 18, "call", list.get(1));
+    }
+}
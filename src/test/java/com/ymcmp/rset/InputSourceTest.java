@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.RandomAccessFile;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.channels.FileChannel;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+import com.ymcmp.rset.rt.InputSource;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class InputSourceTest {
+
+    private static Class<?> Input;
+
+    @org.junit.Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "rule word  = k:(%a-%z+) { ?k }," +
+            "rule kw    = %'let' k:%' '+ { ?k }," +
+            "rule notab = k:(~%'\\t' *) { ?k }," +
+            "rule ints  = k:(1-9+) 0 { ?k }," +
+            "rule nest  = [k:(%a %b)] { ?k }," +
+            "rule end   = %x ; { 'end' },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        final byte[] bytes = parser.parse().toBytecode("Input", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        final Class<?> cl = bcl.loadFromBytes("Input", bytes);
+        if (Rulesets.class.isAssignableFrom(cl)) {
+            Input = cl;
+        } else {
+            throw new RuntimeException("This should not happen, generated classes must inherit Rulesets");
+        }
+    }
+
+    public static Rulesets newInput() {
+        try {
+            return (Rulesets) Input.getConstructor().newInstance();
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Character[] boxed(String str) {
+        return str.chars().mapToObj(e -> (char) e).toArray(Character[]::new);
+    }
+
+    @Test
+    public void testCharSources() {
+        final Rule word = newInput().getRule("word");
+        final List<Object> expected = Arrays.asList('a', 'b', 'c');
+
+        assertEquals(expected, word.apply(boxed("abc1")));
+        assertEquals(expected, word.apply("abc1"));
+        assertEquals(expected, word.apply(new StringBuilder("abc1")));
+        assertEquals(expected, word.apply("abc1".toCharArray()));
+        assertEquals(expected, word.apply("abc1".getBytes()));
+        assertEquals(expected, word.apply(Arrays.asList(boxed("abc1"))));
+        assertEquals(expected, word.apply(new LinkedList<>(Arrays.asList(boxed("abc1")))));
+
+        assertNull(word.apply("1abc"));
+        assertNull(word.apply(""));
+        assertNull(word.apply(new int[]{ 'a', 'b' }));
+    }
+
+    @Test
+    public void testLatin1Bytes() {
+        final Rule notab = newInput().getRule("notab");
+        final byte[] data = { 'a', (byte) 0xE9, '\t' };
+        assertEquals(Arrays.asList(Arrays.asList('a'), Arrays.asList('\u00e9')), notab.apply(data));
+    }
+
+    @Test
+    public void testUnrolledChars() {
+        final Rule kw = newInput().getRule("kw");
+        assertNotNull(kw.apply("let  x"));
+        assertEquals(kw.apply(boxed("let  x")), kw.apply("let  x"));
+        assertNull(kw.apply("le x"));
+        assertNull(kw.apply("let"));
+    }
+
+    @Test
+    public void testIntSources() {
+        final Rule ints = newInput().getRule("ints");
+        final List<Object> expected = Arrays.asList(1, 9);
+
+        assertEquals(expected, ints.apply(new int[]{ 1, 9, 0 }));
+        assertEquals(expected, ints.apply(new Object[]{ 1, 9, 0 }));
+        assertNull(ints.apply(new int[]{ 1, 9 }));
+        assertNull(ints.apply(new int[]{ 0 }));
+        assertNull(ints.apply("190"));
+    }
+
+    @Test
+    public void testDestructPrimitiveArrays() {
+        final Rule nest = newInput().getRule("nest");
+        final List<Object> expected = Arrays.asList(Arrays.asList('a'), Arrays.asList('b'));
+
+        assertEquals(expected, nest.apply(new Object[]{ "ab".toCharArray() }));
+        assertEquals(expected, nest.apply(new Object[]{ Arrays.asList('a', 'b') }));
+        assertNull(nest.apply(new Object[]{ "ab" }));
+    }
+
+    @Test
+    public void testEndOfInput() {
+        final Rule end = newInput().getRule("end");
+        assertEquals("end", end.apply("x"));
+        assertNull(end.apply("xy"));
+        assertEquals("end", end.apply(InputSource.of('x')));
+    }
+
+    @Test
+    public void testPlainFunctionRules() {
+        final Rule first = data -> data.length > 0 ? data[0] : null;
+        assertEquals(1, first.apply(new Object[]{ 1, 2 }));
+        assertEquals('a', first.apply("ab"));
+        assertEquals(9, first.apply(new int[]{ 9 }));
+        assertNull(first.apply(""));
+        assertTrue(first.matches("ab"));
+        assertEquals(0, first.matchLength(InputSource.of("ab")));
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        final Path file = folder.newFile("input.log").toPath();
+        Files.write(file, new byte[]{ 'x', 'y', 'a', 'b', 'c', '1', (byte) 0xE9, '\t' });
+
+        final Rule word = newInput().getRule("word");
+        assertEquals(Arrays.asList('x', 'y', 'a', 'b', 'c'), word.apply(InputSource.map(file)));
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(Arrays.asList('a', 'b', 'c'), word.apply(InputSource.map(channel, 2, 4)));
+            assertEquals(Arrays.asList('a', 'b'), word.apply(InputSource.map(channel, 2, 2)));
+            assertNull(word.apply(InputSource.map(channel, 2, 0)));
+
+            final Rule notab = newInput().getRule("notab");
+            assertEquals(Arrays.asList(Arrays.asList('1'), Arrays.asList('\u00e9')),
+                    notab.apply(InputSource.map(channel, 5, 3)));
+        }
+    }
+
+    @Test
+    public void testMappedFileTooLarge() throws IOException {
+        final Path file = folder.newFile("large.log").toPath();
+        try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // Sparse, nothing past the first bytes is written
+            raf.write(new byte[]{ 'a', 'b', 'c' });
+            raf.setLength(Integer.MAX_VALUE + 1L);
+        }
+
+        try {
+            InputSource.map(file);
+            fail("Files over Integer.MAX_VALUE bytes cannot be mapped as a whole");
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        final Rule word = newInput().getRule("word");
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(Arrays.asList('a', 'b', 'c'), word.apply(InputSource.map(channel, 0, 4)));
+        }
+    }
+}
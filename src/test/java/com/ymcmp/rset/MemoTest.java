@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ymcmp.rset.rt.Rulesets;
+
+import com.ymcmp.rset.lib.Export;
+import com.ymcmp.rset.lib.Stdlib;
+import com.ymcmp.rset.lib.Extensions;
+
+import com.ymcmp.rset.tree.RulesetGroup;
+
+import com.ymcmp.lexparse.IllegalParseException;
+
+import org.junit.Test;
+import org.junit.Before;
+
+import static org.junit.Assert.*;
+
+public class MemoTest {
+
+    public static final class Counter {
+
+        public static final AtomicInteger TICKS = new AtomicInteger();
+
+        @Export("_tick")
+        public static String tick(Object... args) {
+            TICKS.incrementAndGet();
+            return Stdlib.concat(args);
+        }
+    }
+
+    private static final String SOURCE =
+        "memo subrule mnum = k:(%0-%9+) { ?_tick ?k },\n" +
+        "subrule pnum = k:(%0-%9+) { ?_tick ?k },\n" +
+        "rule m = (n:&mnum %'+' | n:&mnum %'-' | n:&mnum) { ?n },\n" +
+        "rule p = (n:&pnum %'+' | n:&pnum %'-' | n:&pnum) { ?n },\n" +
+        "memo subrule nest = %'(' &nest %')' %x | %'(' &nest %')' %y | %z { ?_tick 'n' },\n" +
+        "rule nested = &nest { 'ok' },\n";
+
+    private static Rulesets compile(final String name, final boolean memoizeAll) {
+        final RsetLexer lexer = new RsetLexer(new StringReader(SOURCE));
+        final RsetParser parser = new RsetParser(lexer);
+        final RulesetGroup tree = parser.parse();
+        if (memoizeAll) tree.enableMemoization();
+
+        final byte[] bytes = tree.toBytecode(name, null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        final Class<?> cl = bcl.loadFromBytes(name, bytes);
+
+        final Extensions ext = new Extensions();
+        ext.importClass(Counter.class);
+        try {
+            return (Rulesets) cl.getConstructor(Extensions.class).newInstance(ext);
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Character[] strToCharArray(String str) {
+        if (str == null || str.isEmpty()) return new Character[0];
+        return str.chars().mapToObj(e -> (char) e).toArray(Character[]::new);
+    }
+
+    @Before
+    public void resetCounter() {
+        Counter.TICKS.set(0);
+    }
+
+    @Test
+    public void memoizedSubruleRunsOncePerPosition() {
+        final Rulesets rsets = compile("MemoPerRule", false);
+
+        assertEquals("123", rsets.getRule("m").apply(strToCharArray("123")));
+        assertEquals(1, Counter.TICKS.getAndSet(0));
+
+        assertEquals("123", rsets.getRule("p").apply(strToCharArray("123")));
+        assertEquals(3, Counter.TICKS.getAndSet(0));
+
+        assertEquals("12", rsets.getRule("m").apply(strToCharArray("12-")));
+        assertEquals(1, Counter.TICKS.getAndSet(0));
+
+        assertNull(rsets.getRule("m").apply(strToCharArray("+")));
+        assertEquals(0, Counter.TICKS.get());
+    }
+
+    @Test
+    public void memoizeAllRulesets() {
+        final Rulesets rsets = compile("MemoAll", true);
+
+        assertEquals("123", rsets.getRule("p").apply(strToCharArray("123")));
+        assertEquals(1, Counter.TICKS.get());
+    }
+
+    @Test
+    public void backtrackingStaysLinear() {
+        final Rulesets rsets = compile("MemoNested", false);
+
+        final StringBuilder sb = new StringBuilder();
+        final int depth = 16;
+        for (int i = 0; i < depth; ++i) sb.append('(');
+        sb.append('z');
+        for (int i = 0; i < depth; ++i) sb.append(")y");
+
+        assertEquals("ok", rsets.getRule("nested").apply(strToCharArray(sb.toString())));
+        // Without memoization, the action of the innermost nest would run 2^16 times
+        assertEquals(depth + 1, Counter.TICKS.get());
+    }
+
+    @Test(expected = IllegalParseException.class)
+    public void memoWithoutRuleType() {
+        try (final RsetLexer lexer = new RsetLexer(new StringReader("memo"))) {
+            new RsetParser(lexer).parse();
+        } catch (IOException ex) {
+            fail("No manipulating IO?");
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void memoOnFragment() {
+        try (final RsetLexer lexer = new RsetLexer(new StringReader("memo fragment a = a"))) {
+            new RsetParser(lexer).parse();
+        } catch (IOException ex) {
+            fail("No manipulating IO?");
+        }
+    }
+}
@@ -24,6 +24,7 @@ import static org.junit.Assert.*;
 public class NegateTest {
 
     private static Class<?> Negate;
+    private static byte[] bytes;
 
     @BeforeClass
     public static void compile() {
@@ -39,12 +40,17 @@ public class NegateTest {
             "rule s   = k:(a b c) { ?k }," +
             "rule ns  = k:~(a b c) { ?k }," +
             "rule range = k:~(1-5) { ?k }," +
-            "rule prop  = k:~!hello { ?k },"
+            "rule prop  = k:~!hello { ?k }," +
+            "subrule sa = k:a { ?k }," +
+            "memo subrule sb = k:(b c) { ?k }," +
+            "rule nsub  = k:~&sa { ?k }," +
+            "rule nnsub = k:~~&sa { ?k }," +
+            "rule memo  = k:(~&sb &sb) { ?k },"
         );
 
         final RsetLexer lexer = new RsetLexer(reader);
         final RsetParser parser = new RsetParser(lexer);
-        final byte[] bytes = parser.parse().toBytecode("Negate", null, false);
+        bytes = parser.parse().toBytecode("Negate", null, false);
         final ByteClassLoader bcl = new ByteClassLoader();
         final Class<?> cl = bcl.loadFromBytes("Negate", bytes);
         if (Rulesets.class.isAssignableFrom(cl)) {
@@ -311,4 +317,33 @@ public class NegateTest {
     public void testProp() {
         assertNull(newNegate().getRule("prop").apply(new Object[1]));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNegatedSubrule() {
+        final Rulesets rsets = newNegate();
+        assertNull(rsets.getRule("nsub").apply(new Object[]{ "a" }));
+        assertEquals("b", rsets.getRule("nsub").apply(new Object[]{ "b" }));
+        assertEquals("a", rsets.getRule("nnsub").apply(new Object[]{ "a" }));
+        assertNull(rsets.getRule("nnsub").apply(new Object[]{ "b" }));
+
+        // Both polarities of sb share the memo table without mixing up
+        assertEquals("[[a, b], [b, c]]", rsets.getRule("memo").apply(new Object[]{ "a", "b", "b", "c" }).toString());
+        assertEquals("[[a, d], [b, c]]", rsets.getRule("memo").apply(new Object[]{ "a", "d", "b", "c" }).toString());
+        assertNull(rsets.getRule("memo").apply(new Object[]{ "b", "c", "b", "c" }));
+    }
+
+    @Test
+    public void testNegatedMethods() {
+        // Only rules referenced under negation get a negated variant
+        final Set<String> methods = BytecodeInspector.methodNames(bytes);
+        assertTrue(methods.contains("test~sa"));
+        assertTrue(methods.contains("test~sb"));
+        assertFalse(methods.contains("test~a"));
+        assertFalse(methods.contains("test~nsub"));
+
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testnsub", "Negate", "test~sa"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, "testnsub", "Negate", "testsa"));
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testnnsub", "Negate", "testsa"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, "testnnsub", "Negate", "test~sa"));
+    }
+}
@@ -13,6 +13,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.Set;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
 
 import com.ymcmp.rset.rt.Rulesets;
 
@@ -34,6 +36,7 @@ public class ObjectMatchTest {
             "rule chars = k:%abc { ?k },\n" +
             "rule dest1 = k:[1 2 3] { ?k },\n" +
             "rule dest2 = k:[] { ?k },\n" +
+            "rule dest3 = k:([1 [2 3]] 4 | [1 2] 5 | [1 ~2] 6) { ?k },\n" +
             "rule null  = () { '\\Found null!\\\"' },\n"
         );
 
@@ -194,6 +197,59 @@ public class ObjectMatchTest {
                 sb.toString());
     }
 
+
+    @Test
+    public void testDest3() {
+        final Object[][] tests = {
+            { Arrays.asList(1, Arrays.asList(2, 3)), 4 },
+            { new Object[]{ 1, new int[]{ 2, 3 } }, 4 },
+            { new LinkedList<>(Arrays.asList(1, 2)), 5 },
+            { new long[]{ 1L, 2L }, 5 },
+            { new int[]{ 1, 2 }, 5 },
+            { new int[]{ 1, 3 }, 6 },
+            { new int[]{ 1, 2 }, 6 },
+            { Arrays.asList(1, Arrays.asList(2, 3)), 5 },
+        };
+
+        final StringBuilder sb = new StringBuilder();
+        final Rulesets rsets = newObjectMatch();
+        for (final Object[] test : tests) {
+            final Object obj = rsets.getRule("dest3").apply(test);
+            if (obj != null) {
+                sb.append(obj).append('\n');
+            }
+        }
+        assertEquals(
+                "[[1, [2, 3]], 4]\n" +
+                "[[1, [2, 3]], 4]\n" +
+                "[[1, 2], 5]\n" +
+                "[[1, 2], 5]\n" +
+                "[[1, 3], 6]\n",
+                sb.toString());
+    }
+
+    @Test
+    public void testDestIterable() {
+        // Never runs out, so it can only be read as much as needed
+        final Iterable<Integer> naturals = () -> new Iterator<Integer>() {
+            private int next = 1;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                return next++;
+            }
+        };
+
+        final Rulesets rsets = newObjectMatch();
+        assertEquals("[1, 2, 3]", rsets.getRule("dest1").apply(new Object[]{ naturals }).toString());
+        assertEquals("[1, 2, 3]", rsets.getRule("dest1").apply(new Object[]{ (Iterable<Integer>) Arrays.asList(1, 2, 3)::iterator }).toString());
+    }
+
     @Test
     public void testNull() {
         final Object[][] tests = {
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.Arrays;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.RangeSet;
+import com.ymcmp.rset.rt.Rulesets;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class RangeSetTest {
+
+    private static Class<?> Sets;
+    private static byte[] bytes;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "fragment lower = %a-%z," +
+            "subrule word = %if { 'if' }," +
+            "rule ident = k:((&lower | %A-%Z | %_) (&lower | %A-%Z | %_ | %0-%9)*) { ?k }," +
+            "rule notid = k:~(%a | %b | %_) { ?k }," +
+            "rule nums = k:(1-3 | 7 | 10-20) { ?k }," +
+            "rule mixed = k:(&word | %0-%9 | %'-' | %x %y | %'+' | %'=') { ?k }," +
+            "rule wide = k:(%'\u3040'-%'\u309f' | %a-%c) { ?k },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        bytes = parser.parse().toBytecode("Sets", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Sets = bcl.loadFromBytes("Sets", bytes);
+    }
+
+    public static Rulesets newSets() {
+        try {
+            return (Rulesets) Sets.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Test
+    public void testRangeSet() {
+        final RangeSet set = new RangeSet(new int[]{ 5, -3, 1000 }, new int[]{ 20, 10, 15, 30, 300, 400 });
+        for (final int k : new int[]{ -3, 5, 10, 25, 30, 255, 300, 399, 400, 1000 }) {
+            if (k == 255) {
+                assertFalse(set.contains(k));
+            } else {
+                assertTrue(String.valueOf(k), set.contains(k));
+            }
+        }
+        for (final int k : new int[]{ -4, -2, 4, 6, 9, 31, 299, 401, 999, 1001, Integer.MIN_VALUE, Integer.MAX_VALUE }) {
+            assertFalse(String.valueOf(k), set.contains(k));
+        }
+
+        assertTrue(set.containsNumber(12.5));
+        assertTrue(set.containsNumber(12L));
+        assertFalse(set.containsNumber(5L));
+        assertFalse(set.containsNumber("12"));
+        assertFalse(set.containsNumber(null));
+        assertFalse(set.containsChar(5));
+    }
+
+    @Test
+    public void testAlternativesAreMerged() {
+        // Char literals add a list, ranges add the element, so they stay apart
+        assertEquals(2, BytecodeInspector.countCalls(bytes, "testident", null, "testCharSet"));
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testident", null, "testCharRange"));
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testnotid", null, "testCharSet"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, "testnotid", null, "testChar"));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, "testnotid", null, "save"));
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testnums", null, "testIntSet"));
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testmixed", null, "testCharSet"));
+        assertEquals(1, BytecodeInspector.countCalls(bytes, "testwide", null, "testCharSet"));
+    }
+
+    @Test
+    public void testIdentifiers() {
+        final Rule ident = newSets().getRule("ident");
+        assertEquals(Arrays.asList('f', Arrays.asList('o', 'o', Arrays.asList('_'), '9')), ident.apply("foo_9 x"));
+        assertEquals(Arrays.asList(Arrays.asList('_'), Arrays.asList()), ident.apply("_"));
+        assertNull(ident.apply("9a"));
+        assertNull(ident.apply(""));
+        assertEquals(Arrays.asList('X', Arrays.asList('1')), ident.apply(new Object[]{ 'X', '1', 2 }));
+        assertNull(ident.apply(new Object[]{ 97 }));
+    }
+
+    @Test
+    public void testNegated() {
+        final Rule notid = newSets().getRule("notid");
+        assertEquals(Arrays.asList('q'), notid.apply("q"));
+        assertNull(notid.apply("a"));
+        assertNull(notid.apply("_"));
+        assertNull(notid.apply(""));
+        assertEquals(Arrays.asList(97), notid.apply(new Object[]{ 97 }));
+        assertEquals(Arrays.asList((Object) null), notid.apply(new Object[]{ null }));
+    }
+
+    @Test
+    public void testInts() {
+        final Rule nums = newSets().getRule("nums");
+        assertEquals(15, nums.apply(new int[]{ 15 }));
+        assertEquals(7, nums.apply(new int[]{ 7 }));
+        assertNull(nums.apply(new int[]{ 5 }));
+        // Ranges compare numerically, single values need an Integer
+        assertEquals(2.5, nums.apply(new Object[]{ 2.5 }));
+        assertEquals(15L, nums.apply(new Object[]{ 15L }));
+        assertNull(nums.apply(new Object[]{ 7L }));
+        assertNull(nums.apply(new Object[]{ "7" }));
+    }
+
+    @Test
+    public void testMixed() {
+        final Rule mixed = newSets().getRule("mixed");
+        assertEquals("if", mixed.apply("if"));
+        assertEquals(Arrays.asList('-'), mixed.apply("-"));
+        assertEquals('4', mixed.apply("4"));
+        assertEquals(Arrays.asList(Arrays.asList('x'), Arrays.asList('y')), mixed.apply("xy"));
+        assertEquals(Arrays.asList('='), mixed.apply("="));
+        assertNull(mixed.apply("x"));
+    }
+
+    @Test
+    public void testWideChars() {
+        final Rule wide = newSets().getRule("wide");
+        assertEquals('\u3042', wide.apply("\u3042"));
+        assertEquals('b', wide.apply("b"));
+        assertNull(wide.apply("\u30a2"));
+    }
+}
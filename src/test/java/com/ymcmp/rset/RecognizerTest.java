@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ymcmp.rset.lib.Stdlib;
+import com.ymcmp.rset.lib.Extensions;
+import com.ymcmp.rset.lib.Export;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+import com.ymcmp.rset.rt.EvalState;
+import com.ymcmp.rset.rt.InputSource;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class RecognizerTest {
+
+    public static final class Counter {
+
+        public static final AtomicInteger TICKS = new AtomicInteger();
+
+        @Export("_tick")
+        public static String tick(Object... args) {
+            TICKS.incrementAndGet();
+            return Stdlib.concat(args);
+        }
+    }
+
+    private static final String[] RULES = { "ident", "num", "sum", "neg", "kw", "nested", "dest", "first" };
+
+    private static Class<?> Recog;
+    private static byte[] bytes;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "fragment digit = %0-%9," +
+            "subrule digits = k:(&digit+) { ?_tick ?k }," +
+            "memo subrule mdigits = k:(&digit+) { ?_tick ?k }," +
+            "rule ident = k:((%a-%z | %_) (%a-%z | %_ | &digit)*) { ?_tick ?k }," +
+            "rule num = n:&digits (%'.' f:&digits)? { ?_tick ?n ?f }," +
+            "rule sum = a:&mdigits (%'+' b:&mdigits | %'-' b:&mdigits)* { ?_tick ?a }," +
+            "rule neg = k:~(%a | %b) k:~%c { ?_tick ?k }," +
+            "rule kw = k:(%if | %else | %for) { ?_tick ?k }," +
+            "rule nested = (%'(' &nested %')' | %x)+ { ?_tick 'n' }," +
+            "rule dest = k:[1 [2 3] 4] { ?_tick ?k }," +
+            "rule first = k:&ident | k:&num { ?_tick ?k },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        bytes = parser.parse().toBytecode("Recog", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Recog = bcl.loadFromBytes("Recog", bytes);
+    }
+
+    public static Rulesets newRecog() {
+        try {
+            final Extensions ext = new Extensions();
+            ext.importClass(Counter.class);
+            return (Rulesets) Recog.getConstructor(Extensions.class).newInstance(ext);
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Before
+    public void resetTicks() {
+        Counter.TICKS.set(0);
+    }
+
+    private static int matchedLength(final Rule rule, final InputSource input) {
+        final EvalState state = new EvalState();
+        state.reset();
+        state.setInput(input);
+        return rule.match(state) ? state.getPosition() : -1;
+    }
+
+    private static void assertSameAsMatch(final Rulesets rsets, final Object... data) {
+        for (final String name : RULES) {
+            final Rule rule = rsets.getRule(name);
+            final int expected = matchedLength(rule, InputSource.of(data));
+            final int ticks = Counter.TICKS.get();
+            assertEquals(name, expected, rsets.matchLength(name, InputSource.of(data)));
+            assertEquals(name, expected >= 0, rsets.matches(name, data));
+            assertEquals(name, ticks, Counter.TICKS.get());
+        }
+    }
+
+    @Test
+    public void testSameAsMatch() {
+        final Rulesets rsets = newRecog();
+        final String[] inputs = {
+            "", "a", "_foo9 bar", "9", "12.5x", "12.", "1+2-3", "1+", "+1",
+            "dd", "ac", "cd", "if", "else", "for", "fo", "((x)x)", "(x", "x)",
+        };
+        for (final String input : inputs) {
+            final Object[] data = input.chars().mapToObj(c -> (char) c).toArray();
+            assertSameAsMatch(rsets, data);
+        }
+        assertSameAsMatch(rsets, new Object[]{ 1, new Object[]{ 2, 3 }, 4 });
+        assertSameAsMatch(rsets, new Object[]{ 1, new Object[]{ 2 }, 4 });
+        assertSameAsMatch(rsets, new Object[]{ 1, 2, 3, 4 });
+        assertSameAsMatch(rsets, new Object[]{ null });
+    }
+
+    @Test
+    public void testRuleMethods() {
+        final Rule num = newRecog().getRule("num");
+        assertTrue(num.matches("12.5"));
+        assertTrue(num.matches("12 and more"));
+        assertFalse(num.matches("x"));
+        assertEquals(4, num.matchLength(InputSource.of("12.5x")));
+        assertEquals(2, num.matchLength(InputSource.of("12.x")));
+        assertEquals(-1, num.matchLength(InputSource.of("")));
+        assertEquals(0, Counter.TICKS.get());
+
+        // The rule is still usable as a whole afterwards
+        assertEquals("12null", num.apply("12"));
+        assertEquals(2, Counter.TICKS.get());
+    }
+
+    @Test
+    public void testInputOverloads() {
+        final Rulesets rsets = newRecog();
+        final Rule num = rsets.getRule("num");
+        assertNotNull(num.apply("123"));
+        final int ticks = Counter.TICKS.get();
+
+        // Same input as apply, not a single String element
+        assertTrue(rsets.matches("num", "123"));
+        assertTrue(rsets.matches("num", new StringBuilder("1.5")));
+        assertTrue(rsets.matches("num", "123".toCharArray()));
+        assertTrue(rsets.matches("num", "123".getBytes()));
+        assertTrue(rsets.matches("num", Arrays.asList('1', '2')));
+        assertTrue(rsets.matches("num", InputSource.of("123")));
+        assertFalse(rsets.matches("num", "x1"));
+        assertFalse(rsets.matches("num", new int[]{ '1' }));
+        // Several arguments are still the elements themselves
+        assertTrue(rsets.matches("num", '1', '2'));
+
+        assertEquals(4, rsets.matchLength("num", "12.5x"));
+        assertEquals(2, rsets.matchLength("num", "12x".toCharArray()));
+        assertEquals(2, rsets.matchLength("num", "12x".getBytes()));
+        assertEquals(1, rsets.matchLength("num", Arrays.asList('1', 'x')));
+        assertEquals(-1, rsets.matchLength("num", new Object[]{ "12" }));
+        assertEquals(3, num.matchLength("123"));
+        assertEquals(2, num.matchLength("12".toCharArray()));
+        assertEquals(2, num.matchLength("12".getBytes()));
+        assertEquals(2, num.matchLength(Arrays.asList('1', '2')));
+        assertEquals(-1, num.matchLength(new int[]{ 1 }));
+        assertTrue(num.matches("1".toCharArray()));
+        assertTrue(num.matches("1".getBytes()));
+        assertTrue(num.matches(Arrays.asList('1')));
+        assertEquals(ticks, Counter.TICKS.get());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUndeclaredRule() {
+        newRecog().matches("digits", '1');
+    }
+
+    @Test
+    public void testNothingIsAllocated() {
+        assertEquals(0, BytecodeInspector.countNews(bytes, name -> name.startsWith("recog"), null));
+        assertEquals(0, BytecodeInspector.countCalls(bytes, name -> name.startsWith("recog"), null, "export"));
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.Arrays;
+
+import com.ymcmp.rset.rt.Rulesets;
+
+import com.ymcmp.rset.lib.Export;
+import com.ymcmp.rset.lib.Extensions;
+
+import com.ymcmp.rset.tree.RulesetGroup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StaticLinkTest {
+
+    public static final class Shadow {
+
+        @Export("_add")
+        public static Object add(Object... args) {
+            return "shadowed";
+        }
+    }
+
+    private static Class<?> compile(final String name, final String source) {
+        final RsetLexer lexer = new RsetLexer(new StringReader(source));
+        final RsetParser parser = new RsetParser(lexer);
+        final RulesetGroup tree = parser.parse();
+
+        final byte[] bytes = tree.toBytecode(name, null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        return bcl.loadFromBytes(name, bytes);
+    }
+
+    private static Rulesets newInstance(final Class<?> cl, final Extensions ext) {
+        try {
+            return (Rulesets) cl.getConstructor(Extensions.class).newInstance(ext);
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static boolean isLinked(final Rulesets rsets, final String export) {
+        try {
+            final Field field = rsets.getClass().getDeclaredField("link$" + export);
+            field.setAccessible(true);
+            return field.getBoolean(rsets);
+        } catch (NoSuchFieldException ex) {
+            return false;
+        } catch (IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static final String SOURCE =
+        "rule add = %a { ?_add 1 2.5 },\n" +
+        "rule many = %a { ?_add 1 2 3 4 },\n" +
+        "rule cat = %a { ?_concat a b c },\n" +
+        "rule eq = %a { ?_eqls 1 1 },\n" +
+        "rule cmp = %a { ?_cmp 1 2 },\n" +
+        "rule none = %a { ?_ 1 2 },\n";
+
+    @Test
+    public void builtinCallsAreLinked() {
+        final Rulesets rsets = newInstance(compile("LinkBuiltins", SOURCE), new Extensions());
+
+        assertTrue(isLinked(rsets, "_add"));
+        assertTrue(isLinked(rsets, "_concat"));
+        assertTrue(isLinked(rsets, "_eqls"));
+        assertTrue(isLinked(rsets, "_"));
+
+        assertEquals(3.5, rsets.getRule("add").apply(new Object[]{ 'a' }));
+        assertEquals(10.0, rsets.getRule("many").apply(new Object[]{ 'a' }));
+        assertEquals("abc", rsets.getRule("cat").apply(new Object[]{ 'a' }));
+        assertEquals(true, rsets.getRule("eq").apply(new Object[]{ 'a' }));
+        assertEquals(-1, rsets.getRule("cmp").apply(new Object[]{ 'a' }));
+        assertEquals(2, rsets.getRule("none").apply(new Object[]{ 'a' }));
+    }
+
+    @Test
+    public void importedNamesAreNotLinked() {
+        final Extensions ext = new Extensions();
+        ext.importClass(Shadow.class);
+        final Rulesets rsets = newInstance(compile("LinkImported", SOURCE), ext);
+
+        assertFalse(isLinked(rsets, "_add"));
+        assertTrue(isLinked(rsets, "_concat"));
+        assertEquals("shadowed", rsets.getRule("add").apply(new Object[]{ 'a' }));
+        assertEquals("abc", rsets.getRule("cat").apply(new Object[]{ 'a' }));
+    }
+
+    @Test
+    public void importsAfterConstructionAreSeen() {
+        final Extensions ext = new Extensions();
+        final Rulesets rsets = newInstance(compile("LinkLateImport", SOURCE), ext);
+        assertEquals(3.5, rsets.getRule("add").apply(new Object[]{ 'a' }));
+
+        ext.importClass(Shadow.class);
+        assertEquals("shadowed", rsets.getRule("add").apply(new Object[]{ 'a' }));
+        assertFalse(isLinked(rsets, "_add"));
+        assertEquals("abc", rsets.getRule("cat").apply(new Object[]{ 'a' }));
+        assertTrue(isLinked(rsets, "_concat"));
+    }
+
+    @Test
+    public void disabledLibrariesAreNotLinked() {
+        final Rulesets rsets = newInstance(compile("LinkDisabled", SOURCE), new Extensions(Extensions.EXT_STDLIB));
+
+        assertFalse(isLinked(rsets, "_add"));
+        assertEquals("abc", rsets.getRule("cat").apply(new Object[]{ 'a' }));
+        try {
+            rsets.getRule("add").apply(new Object[]{ 'a' });
+            fail("_add is not exported when the math library is disabled");
+        } catch (RuntimeException ex) {
+            // Calling the missing export fails like it does without linking
+        }
+    }
+
+    @Test
+    public void capturedNamesAreNotLinked() {
+        final Rulesets rsets = newInstance(compile("LinkCaptured",
+                "rule cap = _concat:%a { ?_concat },\n" +
+                "rule add = %a { _add = 1; ?_add 1 2 },\n" +
+                "rule join = %a { ?_join a b },\n"), new Extensions());
+
+        assertFalse(isLinked(rsets, "_concat"));
+        assertFalse(isLinked(rsets, "_add"));
+        assertTrue(isLinked(rsets, "_join"));
+        assertEquals(Arrays.asList('a'), rsets.getRule("cap").apply(new Object[]{ 'a' }));
+    }
+
+    @Test
+    public void dynamicAssignmentDisablesLinking() {
+        final Rulesets rsets = newInstance(compile("LinkDynamic",
+                "rule add = %a { (?_concat x y) = 1; ?_add 1 2 },\n"), new Extensions());
+
+        assertFalse(isLinked(rsets, "_add"));
+        assertFalse(isLinked(rsets, "_concat"));
+        assertEquals(3.0, rsets.getRule("add").apply(new Object[]{ 'a' }));
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.CharArrayReader;
+import java.io.ByteArrayInputStream;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.ymcmp.rset.rt.Rule;
+import com.ymcmp.rset.rt.Rulesets;
+import com.ymcmp.rset.rt.EvalState;
+import com.ymcmp.rset.rt.InputSource;
+
+import com.ymcmp.rset.lib.Export;
+import com.ymcmp.rset.lib.Extensions;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class StreamingTest {
+
+    public static final class Probe {
+
+        public static InputSource source;
+        public static int matches;
+        public static int maxBuffered;
+
+        @Export("_probe")
+        public static Object probe(Object... args) {
+            ++matches;
+            maxBuffered = Math.max(maxBuffered, source.sizeHint());
+            return "";
+        }
+    }
+
+    // Generates count lines of width characters without holding them in memory
+    private static final class LineReader extends Reader {
+
+        private final int width;
+        private final int count;
+        private int line;
+        private int col;
+
+        public LineReader(int width, int count) {
+            this.width = width;
+            this.count = count;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (line == count) return -1;
+
+            int n = 0;
+            while (n < len && line < count) {
+                if (col == width) {
+                    buf[off + n++] = '\n';
+                    col = 0;
+                    ++line;
+                } else {
+                    buf[off + n++] = (char) ('a' + col++ % 26);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Class<?> Streaming;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "subrule line = (~%'\\n')* %'\\n' { ?_probe 1 }," +
+            "subrule group = (1-9)+ 0 { ?_probe 1 }," +
+            "rule lines = &line* ; { 'ok' }," +
+            "rule groups = &group* ; { 'ok' }," +
+            "rule word = k:(%a-%z+) { ?k }," +
+            "rule back = %a* %b | %a* %c { 'ok' },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        final byte[] bytes = parser.parse().toBytecode("Streaming", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Streaming = bcl.loadFromBytes("Streaming", bytes);
+    }
+
+    public static Rulesets newStreaming() {
+        try {
+            final Extensions ext = new Extensions();
+            ext.importClass(Probe.class);
+            return (Rulesets) Streaming.getConstructor(Extensions.class).newInstance(ext);
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Before
+    public void resetProbe() {
+        Probe.source = null;
+        Probe.matches = 0;
+        Probe.maxBuffered = 0;
+    }
+
+    @Test
+    public void testReaderWindowIsBounded() {
+        final Rule lines = newStreaming().getRule("lines");
+        final InputSource src = InputSource.of(new LineReader(80, 20000));
+        Probe.source = src;
+
+        assertEquals("ok", lines.apply(src));
+        assertEquals(20000, Probe.matches);
+        // Input is 1.6M characters long, only a chunk is ever buffered
+        assertTrue(Probe.maxBuffered <= 8192);
+    }
+
+    @Test
+    public void testIteratorWindowIsBounded() {
+        final Rule groups = newStreaming().getRule("groups");
+        final Iterator<Integer> it = new Iterator<Integer>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < 100000;
+            }
+
+            @Override
+            public Integer next() {
+                return ++i % 10;
+            }
+        };
+        final InputSource src = InputSource.of(it);
+        Probe.source = src;
+
+        // 1 2 ... 9 0 1 2 ... 9 0 ...
+        assertEquals("ok", groups.apply(src));
+        assertEquals(10000, Probe.matches);
+        assertTrue(Probe.maxBuffered <= 16);
+    }
+
+    @Test
+    public void testBacktrackingAcrossBuffer() {
+        final Rule back = newStreaming().getRule("back");
+        final char[] data = new char[10001];
+        Arrays.fill(data, 'a');
+        data[10000] = 'c';
+        assertEquals("ok", back.apply(new CharArrayReader(data)));
+    }
+
+    @Test
+    public void testInputStream() {
+        final Rule word = newStreaming().getRule("word");
+        final byte[] data = { 'a', 'b', '1' };
+        assertEquals(Arrays.asList('a', 'b'), word.apply(new ByteArrayInputStream(data)));
+        assertEquals(Arrays.asList('a', 'b'), word.apply(new StringReader("ab1")));
+    }
+
+    @Test
+    public void testReleaseOnlyWithoutSaves() {
+        final InputSource src = InputSource.of(Arrays.asList(1, 2, 3, 4, 5, 6).iterator());
+        final EvalState state = new EvalState();
+        state.reset();
+        state.setInput(src);
+
+        state.next();
+        state.next();
+        final int outer = state.save();
+        state.next();
+        final int inner = state.save();
+        state.next();
+        state.next();
+        state.unsave(inner);
+        assertEquals(3, state.getPosition());
+        // outer can still be backtracked to
+        assertEquals(5, src.sizeHint());
+
+        state.unsave(outer);
+        assertEquals(2, state.getPosition());
+        assertEquals(3, src.sizeHint());
+
+        state.save();
+        state.next();
+        state.updateSave();
+        assertEquals(3, state.getPosition());
+        assertEquals(2, src.sizeHint());
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset;
+
+import java.io.StringReader;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import java.util.stream.Collectors;
+
+import com.ymcmp.rset.rt.Match;
+import com.ymcmp.rset.rt.Rulesets;
+import com.ymcmp.rset.rt.Tokenizer;
+import com.ymcmp.rset.rt.InputSource;
+
+import org.junit.Test;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+public class TokenizerTest {
+
+    private static Class<?> Lexer;
+
+    @BeforeClass
+    public static void compile() {
+        final StringReader reader = new StringReader(
+            "rule kw = %if | %in { 'kw' }," +
+            "rule ident = (%a-%z)+ { 'id' }," +
+            "rule num = (%0-%9)+ { 'num' }," +
+            "rule ws = %' '+ { () }," +
+            "rule eq = %'=' { 'set' }," +
+            "rule eqeq = %'==' { 'cmp' },"
+        );
+
+        final RsetLexer lexer = new RsetLexer(reader);
+        final RsetParser parser = new RsetParser(lexer);
+        final byte[] bytes = parser.parse().toBytecode("Lexer", null, false);
+        final ByteClassLoader bcl = new ByteClassLoader();
+        Lexer = bcl.loadFromBytes("Lexer", bytes);
+    }
+
+    public static Rulesets newLexer() {
+        try {
+            return (Rulesets) Lexer.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static List<String> names(Tokenizer tokenizer) {
+        return tokenizer.stream().map(Match::getRule).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRulesInDeclarationOrder() {
+        assertEquals(Arrays.asList("kw", "ident", "num", "ws", "eq", "eqeq"), newLexer().getDeclaredRuleNames());
+    }
+
+    @Test
+    public void testLongestMatch() {
+        assertEquals(Arrays.asList("kw", "ws", "ident", "ws", "eqeq", "ws", "num"),
+                names(newLexer().tokenize("if ifx == 10")));
+        assertEquals(Arrays.asList("ident", "eq", "num"), names(newLexer().tokenize("inner=1")));
+    }
+
+    @Test
+    public void testTieGoesToFirstRule() {
+        final Tokenizer tokenizer = newLexer().tokenize("in");
+        final Match m = tokenizer.next();
+        assertEquals("kw", m.getRule());
+        assertEquals("kw", m.getValue());
+        assertEquals(0, m.getStart());
+        assertEquals(2, m.getEnd());
+        assertFalse(tokenizer.hasNext());
+    }
+
+    @Test
+    public void testSubsetOfRules() {
+        final Tokenizer tokenizer = new Tokenizer(newLexer(), Arrays.asList("ident", "kw", "ws"),
+                InputSource.of("if x"));
+        assertEquals(Arrays.asList("ident", "ws", "ident"), names(tokenizer));
+    }
+
+    @Test
+    public void testLazy() {
+        final Tokenizer tokenizer = newLexer().tokenize("a ?");
+        assertEquals("id", tokenizer.next().getValue());
+        assertEquals("ws", tokenizer.next().getRule());
+        assertEquals(2, tokenizer.getPosition());
+        try {
+            tokenizer.next();
+            fail("? is not a token");
+        } catch (RuntimeException ex) {
+            assertEquals("No rule matches at position 2", ex.getMessage());
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testEndOfInput() {
+        final Tokenizer tokenizer = newLexer().tokenize("");
+        assertFalse(tokenizer.hasNext());
+        tokenizer.next();
+    }
+
+    @Test
+    public void testStreaming() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) sb.append("x == 12 ");
+        final long count = newLexer().tokenize(new StringReader(sb.toString()))
+                .stream().filter(m -> "num".equals(m.getRule())).count();
+        assertEquals(5000, count);
+    }
+}
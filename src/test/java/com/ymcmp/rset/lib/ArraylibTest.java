@@ -9,6 +9,11 @@ import java.util.Map;
 import java.util.List;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 import org.junit.Test;
 import org.junit.BeforeClass;
@@ -77,6 +82,43 @@ public class ArraylibTest {
         Arraylib.sort(this);
     }
 
+    @Test
+    public void sortAndReversePrimitiveArrays() {
+        final int[] ints = {2, 1, 3};
+        assertArrayEquals(toArray(1, 2, 3), (Object[]) Arraylib.sort(ints));
+        assertArrayEquals(toArray(3, 1, 2), (Object[]) Arraylib.reverse(ints));
+        assertArrayEquals(new int[]{2, 1, 3}, ints);
+
+        final double[] doubles = {0.0, Double.NaN, -0.0, -1.5};
+        assertArrayEquals(toArray(-1.5, -0.0, 0.0, Double.NaN), (Object[]) Arraylib.sort(doubles));
+        assertArrayEquals(toArray('a', 'b', 'c'), (Object[]) Arraylib.sort(new char[]{'c', 'a', 'b'}));
+        assertArrayEquals(toArray((byte) 3, (byte) 2), (Object[]) Arraylib.reverse(new byte[]{2, 3}));
+        assertArrayEquals(toArray(), (Object[]) Arraylib.reverse(new long[0]));
+    }
+
+    @Test
+    public void asListViewsArraysWithoutCopying() {
+        assertNull(Arraylib.asList(null));
+        assertNull(Arraylib.asList("abc"));
+        assertNull(Arraylib.asList(new boolean[1]));
+
+        final int[] ints = {1, 2, 3};
+        final List<Object> view = Arraylib.asList(ints);
+        assertEquals(Arrays.asList(1, 2, 3), view);
+        ints[1] = 5;
+        assertEquals(Arrays.asList(1, 5, 3), view);
+
+        assertEquals(Arrays.asList((short) 1), Arraylib.asList(new short[]{1}));
+        assertEquals(Arrays.asList(1L), Arraylib.asList(new long[]{1}));
+        assertEquals(Arrays.asList(1.0f), Arraylib.asList(new float[]{1}));
+        assertEquals(Arrays.asList('a'), Arraylib.asList(new char[]{'a'}));
+
+        // The copying version still hands out a list of its own
+        final List<Object> copy = Arraylib.polyArrayToList(ints);
+        copy.add(4);
+        assertEquals(Arrays.asList(1, 5, 3, 4), copy);
+    }
+
     @Test
     public void iotaGenerates1ToInclusiveN() {
         assertArrayEquals(new int[]{1, 2, 3}, Arraylib.iota(3));
@@ -142,6 +184,21 @@ public class ArraylibTest {
         }
     }
 
+    @Test
+    public void subscriptWorksOnCollections() {
+        final List<Integer> list = Arrays.asList(1, 2, 3);
+        assertEquals(2, Arraylib.subscript(list, 1));
+        assertEquals(3, Arraylib.subscript(new LinkedList<>(list), 2));
+        assertEquals(1, Arraylib.subscript(new TreeSet<>(list), 0));
+        assertEquals(3, Arraylib.subscript((Iterable<Integer>) list::iterator, 2));
+
+        for (final Object bad : new Object[]{ -1, 3, "a" }) {
+            assertNull(Arraylib.subscript(list, bad));
+            assertNull(Arraylib.subscript(new TreeSet<>(list), bad));
+            assertNull(Arraylib.subscript((Iterable<Integer>) list::iterator, bad));
+        }
+    }
+
     @Test(expected = RuntimeException.class)
     public void subscriptThrowsOnNonIndexable() {
         Arraylib.subscript(this, 8);
@@ -191,6 +248,46 @@ public class ArraylibTest {
         assertEquals(3, counter);
     }
 
+    private static List<Object> drain(final Iterator<?> it) {
+        final List<Object> list = new ArrayList<>();
+        while (it.hasNext()) list.add(it.next());
+        return list;
+    }
+
+    @Test
+    public void testIterateGivesSameElementsAsToIterable() {
+        final Object[] tests = {
+            toArray(1, 2, 3), Arrays.asList(1, 2, 3), "Abc", new int[] {2, 7, 4},
+            new char[] {'x', 'y'}, new double[] {1.5}, new byte[0], demoMap,
+        };
+        for (final Object test : tests) {
+            final List<Object> expected = new ArrayList<>();
+            Arraylib.toIterable(test).forEach(expected::add);
+            assertEquals(expected, drain(Arraylib.iterate(test)));
+        }
+        assertNull(Arraylib.iterate(null));
+    }
+
+    @Test
+    public void iterateDoesNotCopy() {
+        final StringBuilder sb = new StringBuilder("ab");
+        final Iterator<?> it = Arraylib.iterate(sb);
+        sb.setCharAt(1, 'c');
+        assertEquals(Arrays.asList('a', 'c'), drain(it));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iteratePastTheEnd() {
+        final Iterator<?> it = Arraylib.iterate(new int[] {1});
+        it.next();
+        it.next();
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void iterateWillThrowIfTypeCannotBeIterated() {
+        Arraylib.iterate(this);
+    }
+
     @Test
     public void testDropEveryXIndex() {
         assertEquals(Arrays.asList(1, 3, 5), Arraylib.dropEveryXIndex(toArray(1, 2, 3, 4, 5, 6), 1, 0));
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExtensionsTest {
+
+    public static final class Imported {
+
+        @Export("_twice")
+        public static Object twice(Object k) {
+            return Stdlib.concat(k, k);
+        }
+
+        @Export("_concat")
+        public static Object shadow(Object... k) {
+            return "shadowed";
+        }
+
+        @Export("_join")
+        public static String join(String sep, String... parts) {
+            return String.join(sep, parts);
+        }
+
+        @Export("_half")
+        public static double half(double d) {
+            return d / 2;
+        }
+
+        @Export("_nop")
+        public static void nop() {
+        }
+
+        @Export("_fail")
+        public static Object fail() {
+            throw new IllegalStateException();
+        }
+
+        @Export("_value")
+        public final Object value;
+
+        public Imported(Object value) {
+            this.value = value;
+        }
+
+        @Export("_wrap")
+        public Object wrap(Object... args) {
+            return value + ":" + args.length;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object call(Map<String, Object> env, String name, Object... args) {
+        return ((Function<Object[], Object>) env.get(name)).apply(args);
+    }
+
+    @Test
+    public void testFeatureMask() {
+        final Map<String, Object> none = new Extensions(0).export();
+        assertTrue(none.isEmpty());
+        assertNull(none.get("_concat"));
+
+        final Map<String, Object> math = new Extensions(Extensions.EXT_MATH).export();
+        assertNotNull(math.get("_add"));
+        assertNull(math.get("_concat"));
+    }
+
+    @Test
+    public void testEnvironmentsAreIndependent() {
+        final Extensions ext = new Extensions();
+        final Map<String, Object> a = ext.export();
+        final Map<String, Object> b = ext.export();
+
+        a.put("x", 1);
+        a.put("_concat", 2);
+        assertEquals(1, a.get("x"));
+        assertEquals(2, a.get("_concat"));
+        assertTrue(a.containsKey("x"));
+
+        assertNull(b.get("x"));
+        assertFalse(b.containsKey("x"));
+        assertEquals("ab", call(b, "_concat", "a", "b"));
+        assertEquals(b.size() + 1, a.size());
+    }
+
+    @Test
+    public void testNullValuesShadowExports() {
+        final Map<String, Object> env = new Extensions().export();
+        env.put("_concat", null);
+        assertTrue(env.containsKey("_concat"));
+        assertNull(env.get("_concat"));
+    }
+
+    @Test
+    public void testRemoveAndCopy() {
+        final Map<String, Object> env = new Extensions().export();
+        env.put("x", 1);
+        env.remove("_concat");
+        assertFalse(env.containsKey("_concat"));
+        assertTrue(new Extensions().export().containsKey("_concat"));
+
+        final Map<String, Object> copy = new HashMap<>();
+        copy.putAll(env);
+        assertEquals(env, copy);
+        assertEquals(1, copy.get("x"));
+    }
+
+    @Test
+    public void testImportAfterExport() {
+        final Extensions ext = new Extensions();
+        assertNull(ext.export().get("_twice"));
+
+        ext.importClass(Imported.class);
+        final Map<String, Object> env = ext.export();
+        assertEquals("abab", call(env, "_twice", "ab"));
+        assertEquals("shadowed", call(env, "_concat", "a", "b"));
+
+        final Map<String, Object> module = new HashMap<>();
+        ext.exportTo(module);
+        assertEquals(env, module);
+    }
+
+    @Test
+    public void testBoundSignatures() {
+        final Extensions ext = new Extensions(0);
+        ext.importClass(Imported.class);
+        final Map<String, Object> env = ext.export();
+
+        assertEquals("", call(env, "_join", ","));
+        assertEquals("a", call(env, "_join", ",", "a"));
+        assertEquals("a,b,c", call(env, "_join", ",", "a", "b", "c"));
+        assertEquals("a-b", call(env, "_join", "-", "a", "b"));
+        assertEquals(1.5, call(env, "_half", 3));
+        assertEquals(1.25, call(env, "_half", 2.5));
+        assertNull(call(env, "_nop"));
+
+        final Imported self = new Imported("v");
+        assertEquals("v", call(env, "_value", self));
+        assertEquals("v:0", call(env, "_wrap", self));
+        assertEquals("v:2", call(env, "_wrap", self, 1, 2));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCallFailure() {
+        final Extensions ext = new Extensions(0);
+        ext.importClass(Imported.class);
+        call(ext.export(), "_fail");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testArityMismatch() {
+        final Extensions ext = new Extensions(0);
+        ext.importClass(Imported.class);
+        call(ext.export(), "_half", 1, 2);
+    }
+}
@@ -5,6 +5,9 @@
 
 package com.ymcmp.rset.lib;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import java.util.List;
 import java.util.Arrays;
 
@@ -62,4 +65,60 @@ public class MathlibTest {
         assertEquals(~1, Mathlib.not(1.0));
         assertNull(Mathlib.not(this));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCompareMixed() {
+        assertEquals(0, Mathlib.compare(1, 1.0));
+        assertEquals(0, Mathlib.compare(1.0f, 1L));
+        assertEquals(0, Mathlib.compare((short) 3, (byte) 3));
+        assertEquals(-1, Mathlib.compare(1, 1.5));
+        assertEquals(1, Mathlib.compare(2, 1.5));
+        assertEquals(1, Mathlib.compare(-1, -1.5));
+        assertEquals(-1, Mathlib.compare(-2, -1.5));
+        assertEquals(1, Mathlib.compare(1.5, 1));
+        assertEquals(0, Mathlib.compare(-0.0, 0));
+        assertEquals(0, Mathlib.compare(-0.0, 0.0));
+        assertEquals(-1, Mathlib.compare(0.5f, 0.75));
+    }
+
+    @Test
+    public void testCompareLargeLongs() {
+        // 2^53 + 1 has no double, the comparison must not round it
+        assertEquals(1, Mathlib.compare(9007199254740993L, 9007199254740992.0));
+        assertEquals(-1, Mathlib.compare(9007199254740991L, 9007199254740992.0));
+        assertEquals(-1, Mathlib.compare(Long.MAX_VALUE, 0x1p63));
+        assertEquals(0, Mathlib.compare(Long.MIN_VALUE, -0x1p63));
+        assertEquals(1, Mathlib.compare(Long.MIN_VALUE, -0x1p64));
+        assertEquals(-1, Mathlib.compare(Long.MAX_VALUE, Double.POSITIVE_INFINITY));
+        assertEquals(1, Mathlib.compare(Long.MIN_VALUE, Double.NEGATIVE_INFINITY));
+        assertEquals(1, Mathlib.compare(Long.MAX_VALUE, Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testCompareNaN() {
+        assertEquals(-1, Mathlib.compare(Long.MAX_VALUE, Double.NaN));
+        assertEquals(1, Mathlib.compare(Double.NaN, 0));
+        assertEquals(1, Mathlib.compare(Float.NaN, Double.POSITIVE_INFINITY));
+        assertEquals(0, Mathlib.compare(Double.NaN, Float.NaN));
+        assertEquals(1, Mathlib.compare(Double.NaN, BigInteger.TEN));
+        assertFalse(Mathlib._lt(Double.NaN, 1));
+        assertTrue(Mathlib._lt(1, Double.NaN));
+    }
+
+    @Test
+    public void testCompareBig() {
+        final BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE);
+        assertEquals(1, Mathlib.compare(big, Long.MAX_VALUE));
+        assertEquals(0, Mathlib.compare(big, 0x1p63));
+        assertEquals(-1, Mathlib.compare(big, Double.POSITIVE_INFINITY));
+        assertEquals(0, Mathlib.compare(new BigDecimal("2.50"), 2.5f));
+        assertEquals(-1, Mathlib.compare(new BigDecimal("2.5"), 3));
+        assertEquals(1, Mathlib.compare(new BigDecimal("1E400"), Double.MAX_VALUE));
+    }
+
+    @Test
+    public void testCompareOther() {
+        assertEquals(0, Integer.signum(Mathlib.compare("a", "a")));
+        assertTrue(Mathlib.compare("a", "b") < 0);
+    }
+}
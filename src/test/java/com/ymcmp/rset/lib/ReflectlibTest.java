@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2018 Paul Teng <plankp@outlook.com>.
+ * Licensed under the BSD-3-Clause License - https://raw.githubusercontent.com/plankp/Rulesets/blob/master/LICENSE
+ */
+
+package com.ymcmp.rset.lib;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReflectlibTest {
+
+    public static final class Point {
+
+        public static final String ORIGIN = "origin";
+
+        public int x = 1;
+        public Object y;
+
+        public String join(String sep, Integer z) {
+            return x + sep + y + sep + z;
+        }
+
+        public void fail() {
+            throw new IllegalStateException("failed");
+        }
+
+        public static int twice(Integer k) {
+            return k * 2;
+        }
+    }
+
+    @Test
+    public void testAccessField() {
+        final Point p = new Point();
+        assertEquals(1, Reflectlib.access(p, "x"));
+        assertNull(Reflectlib.access(p, "y"));
+        assertEquals("origin", Reflectlib.access(p, "ORIGIN"));
+        assertNull(Reflectlib.access(p, "z"));
+        // Asking again hits the cached miss
+        assertNull(Reflectlib.access(p, "z"));
+
+        // Handles are per class, not per object
+        p.x = 5;
+        assertEquals(5, Reflectlib.access(p, "x"));
+        assertEquals(3, Reflectlib.access(new int[3], "length"));
+        assertNull(Reflectlib.access(new int[3], "size"));
+    }
+
+    @Test
+    public void testAccessMethod() {
+        final Point p = new Point();
+        p.y = 'a';
+        assertEquals("1-a-3", Reflectlib.access(p, new Object[]{ "join", "-", 3 }));
+        assertEquals("1+a+4", Reflectlib.access(p, Arrays.asList("join", "+", 4)));
+        assertEquals(14, Reflectlib.access(p, new Object[]{ "twice", 7 }));
+        assertEquals(3, Reflectlib.access(new ArrayList<>(Arrays.asList(1, 2, 3)), new Object[]{ "size" }));
+
+        // Parameter types must match exactly
+        assertNull(Reflectlib.access(p, new Object[]{ "join", "-", 3L }));
+        assertNull(Reflectlib.access(p, new Object[]{ "join", "-" }));
+        assertNull(Reflectlib.access(p, new Object[]{ "missing" }));
+        assertNull(Reflectlib.access(p, new Object[0]));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testAccessMethodThatThrows() {
+        Reflectlib.access(new Point(), new Object[]{ "fail" });
+    }
+
+    @Test
+    public void testClassMembers() {
+        final ClassMembers members = ClassMembers.of(Point.class);
+        assertSame(members, ClassMembers.of(Point.class));
+        assertTrue(members.hasField("x"));
+        assertTrue(members.hasField("ORIGIN"));
+        assertFalse(members.hasField("join"));
+        assertTrue(members.hasMethod("join"));
+        assertTrue(members.hasMethod("hashCode"));
+        assertFalse(members.hasMethod("x"));
+
+        assertSame(members.getter("x"), members.getter("x"));
+        assertNull(members.getter("join"));
+        assertSame(members.invoker("twice", Integer.class), members.invoker("twice", Integer.class));
+        assertNull(members.invoker("twice", int.class));
+
+        assertTrue(ClassMembers.of(int[].class).hasField("length"));
+        assertNull(ClassMembers.of(int[].class).getter("length"));
+    }
+}